@@ -0,0 +1,148 @@
+package com.criticalblue.android.astropiks;
+
+import android.app.Instrumentation;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Swipes through pages of APOD sized images with neighbour preloading, as
+ * the detail pager does, and measures how many pages found their image
+ * already decoded. Pages are swiped on a timer, racing their preloads.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NeighbourPreloadTest {
+
+    private static final int PAGES = 8;
+    private static final int IMAGE_WIDTH = 1600;
+    private static final int IMAGE_HEIGHT = 1200;
+    private static final long PRELOAD_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long READING_MILLIS = 1000;
+    private static final long FLICKING_MILLIS = 50;
+
+    private final Instrumentation mInstrumentation = InstrumentationRegistry.getInstrumentation();
+
+    @Test
+    public void swipe_whileReading_findsMostNeighboursPreloaded() throws Exception {
+        App app = (App) mInstrumentation.getTargetContext().getApplicationContext();
+        NeighbourPreloader preloader = new NeighbourPreloader(app.getImageDownloader(), writeImages(app, "read"), 1);
+
+        swipe(preloader, READING_MILLIS);
+
+        // the preloads race the swipes, a slow decode is a miss
+        int hits = preloader.getHitCount();
+        assertEquals(PAGES - 1, hits + preloader.getMissCount());
+        assertTrue("hit rate " + hits + "/" + (PAGES - 1), hits >= (PAGES - 1) / 2);
+    }
+
+    @Test
+    public void swipe_flicking_countsEveryPage() throws Exception {
+        App app = (App) mInstrumentation.getTargetContext().getApplicationContext();
+        NeighbourPreloader preloader = new NeighbourPreloader(app.getImageDownloader(), writeImages(app, "flick"), 1);
+
+        swipe(preloader, FLICKING_MILLIS);
+
+        // too fast for most preloads, only the accounting is checked
+        assertEquals(PAGES - 1, preloader.getHitCount() + preloader.getMissCount());
+    }
+
+    @Test
+    public void swipe_backFindsPreviousPagePreloaded() throws Exception {
+        App app = (App) mInstrumentation.getTargetContext().getApplicationContext();
+        final NeighbourPreloader preloader = new NeighbourPreloader(app.getImageDownloader(), writeImages(app, "back"), 1);
+
+        mInstrumentation.runOnMainSync(() -> preloader.onPageSelected(3));
+        awaitPreloaded(preloader, 2);
+        awaitPreloaded(preloader, 4);
+        mInstrumentation.runOnMainSync(() -> preloader.onPageSelected(2));
+
+        assertEquals(1, preloader.getHitCount());
+        assertEquals(0, preloader.getMissCount());
+
+        mInstrumentation.runOnMainSync(preloader::cancel);
+    }
+
+    @Test
+    public void jump_cancelsPreloadsOutOfReach() throws Exception {
+        App app = (App) mInstrumentation.getTargetContext().getApplicationContext();
+        final NeighbourPreloader preloader = new NeighbourPreloader(app.getImageDownloader(), writeImages(app, "jump"), 1);
+        final AtomicBoolean preloadingFirstPages = new AtomicBoolean();
+
+        mInstrumentation.runOnMainSync(() -> {
+            preloader.onPageSelected(0);
+            preloader.onPageSelected(5);
+            preloadingFirstPages.set(preloader.isPreloaded(1));
+        });
+
+        assertFalse(preloadingFirstPages.get());
+        assertEquals(2, preloader.getPreloadCount());
+        assertEquals(1, preloader.getMissCount());
+
+        mInstrumentation.runOnMainSync(preloader::cancel);
+        assertEquals(0, preloader.getPreloadCount());
+    }
+
+    /**
+     * Swipes to the next page every so often, whether its preload is done or
+     * not, and logs the hit rate.
+     */
+    private void swipe(final NeighbourPreloader preloader, long dwellMillis) throws InterruptedException {
+        mInstrumentation.runOnMainSync(() -> preloader.onPageSelected(0));
+        for (int page = 1; page < PAGES; ++page) {
+            Thread.sleep(dwellMillis);
+
+            final int selected = page;
+            mInstrumentation.runOnMainSync(() -> preloader.onPageSelected(selected));
+        }
+
+        int hits = preloader.getHitCount();
+        Log.i("ASTROPIKS_APP", "PRELOAD HIT RATE, " + dwellMillis + "ms per page: " + hits + "/" + (PAGES - 1));
+        mInstrumentation.runOnMainSync(preloader::cancel);
+    }
+
+    private void awaitPreloaded(final NeighbourPreloader preloader, final int page) throws InterruptedException {
+        final AtomicBoolean preloaded = new AtomicBoolean();
+        long deadline = System.currentTimeMillis() + PRELOAD_TIMEOUT_MILLIS;
+        while (System.currentTimeMillis() < deadline) {
+            mInstrumentation.runOnMainSync(() -> preloaded.set(preloader.isPreloaded(page)));
+            if (preloaded.get()) {
+                return;
+            }
+            Thread.sleep(20);
+        }
+        fail("page " + page + " not preloaded");
+    }
+
+    private static List<String> writeImages(App app, String name) throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int page = 0; page < PAGES; ++page) {
+            Bitmap image = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+            image.eraseColor(Color.rgb(page * 30, 64, 128));
+
+            File file = new File(app.getCacheDir(), "apod-" + name + "-" + page + ".jpg");
+            try (OutputStream out = new FileOutputStream(file)) {
+                image.compress(Bitmap.CompressFormat.JPEG, 90, out);
+            }
+            image.recycle();
+            urls.add(Uri.fromFile(file).toString());
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,67 @@
+package com.criticalblue.android.astropiks;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the bitmap memory of a gallery page of thumbnails against full
+ * resolution decoding, on an APOD sized image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailDecodeTest {
+
+    private static final int SPAN = 2;
+    private static final int PAGE_SIZE = 6 * SPAN;
+    private static final int IMAGE_WIDTH = 4000;
+    private static final int IMAGE_HEIGHT = 3000;
+
+    @Test
+    public void loadThumbnail_decodesAtCellSize() throws Exception {
+        App app = (App) InstrumentationRegistry.getInstrumentation().getTargetContext().getApplicationContext();
+        String url = Uri.fromFile(writeImage(app)).toString();
+        int cellWidth = app.getResources().getDisplayMetrics().widthPixels / SPAN;
+        int cellHeight = app.getResources().getDimensionPixelSize(R.dimen.gallery_item_height);
+
+        Bitmap thumbnail = app.loadThumbnail(url).resize(cellWidth, cellHeight).get();
+        Bitmap full = app.getImageDownloader().load(url).get();
+
+        long thumbnailPageBytes = (long) PAGE_SIZE * thumbnail.getByteCount();
+        long fullPageBytes = (long) PAGE_SIZE * full.getByteCount();
+        Log.i("ASTROPIKS_APP", "BITMAP BYTES PER PAGE: " + thumbnailPageBytes + " as thumbnails, "
+                + fullPageBytes + " at full resolution");
+
+        assertEquals(Bitmap.Config.RGB_565, thumbnail.getConfig());
+        assertTrue(thumbnail.getWidth() <= cellWidth);
+        assertTrue(thumbnail.getHeight() <= cellHeight);
+        assertEquals(IMAGE_WIDTH, full.getWidth());
+
+        // a whole page of thumbnails takes less than one full resolution photo
+        assertTrue(thumbnailPageBytes < full.getByteCount());
+    }
+
+    private static File writeImage(App app) throws Exception {
+        Bitmap image = Bitmap.createBitmap(IMAGE_WIDTH, IMAGE_HEIGHT, Bitmap.Config.ARGB_8888);
+        image.eraseColor(Color.DKGRAY);
+
+        File file = new File(app.getCacheDir(), "apod-test.jpg");
+        try (OutputStream out = new FileOutputStream(file)) {
+            image.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        }
+        image.recycle();
+        return file;
+    }
+}
@@ -17,10 +17,18 @@
 package com.criticalblue.android.astropiks;
 
 import android.app.Application;
+import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.squareup.picasso.Cache;
 import com.squareup.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import okhttp3.OkHttpClient;
 
@@ -30,45 +38,220 @@ import okhttp3.OkHttpClient;
 /**
  * Represents the Astropiks application.
  *
- * This is only used to hold a long running Approov attestation object
- * throughout the running activities.
+ * Holds a long running Approov attestation object throughout the running
+ * activities, together with the http client and image downloader shared by
+ * all of them.
  */
 public class App extends Application {
 
+    private static final long BYTES_PER_MB = 1024 * 1024;
+    private static final String PHOTO_STORE_FILE_NAME = "photos.store";
+    private static final String METRICS_FILE_NAME = "metrics.txt";
+
+    private HttpClientProvider mHttpClientProvider;
+    private ImageCache mImageCache;
+    private ImageRenditions mImageRenditions;
+    private volatile Picasso mImageDownloader;
+    private volatile Picasso mThumbnailDownloader;
+    private PhotoStore mPhotoStore;
+    private ScheduledExecutorService mDiskExecutor;
+    private RetryPolicy mRetryPolicy;
+    private long mStartNanos;
+    private final AtomicBoolean mFirstPaintReported = new AtomicBoolean();
+
     @Override
     public void onCreate (){
         super.onCreate();
+        mStartNanos = System.nanoTime();
+
+        mHttpClientProvider = new HttpClientProvider(
+          getCacheDir(),
+          getResources().getInteger(R.integer.http_cache_size_mb) * BYTES_PER_MB,
+          getResources().getInteger(R.integer.http_max_idle_connections),
+          getResources().getInteger(R.integer.http_keep_alive_minutes),
+          getResources().getInteger(R.integer.http_max_requests_per_host)
+        );
+        mPhotoStore = new PhotoStore(new File(getFilesDir(), PHOTO_STORE_FILE_NAME));
+        mDiskExecutor = Executors.newSingleThreadScheduledExecutor();
+        mRetryPolicy = new RetryPolicy(
+          mDiskExecutor,
+          getResources().getInteger(R.integer.retry_base_delay_ms),
+          getResources().getInteger(R.integer.retry_max_delay_ms),
+          getResources().getInteger(R.integer.retry_max_per_page),
+          getResources().getInteger(R.integer.retry_failures_to_pause),
+          getResources().getInteger(R.integer.retry_pause_ms)
+        );
 
         // *** UNCOMMENT THE LINE BELOW FOR APPROOV ***
         //ApproovService.initialize(getApplicationContext(), getString(R.string.approov_config));
 
+        // *** UNCOMMENT THE LINE BELOW FOR APPROOV ***
+        //ApproovService.setOkHttpClientBuilder(mHttpClientProvider.newBuilder());
+
         // *** UNCOMMENT THE LINE BELOW FOR APPROOV RUNTIME SECRETS ***
         //ApproovService.addSubstitutionQueryParam("api_key");
+
+        // connect to the proxy while the first screen is laid out, off the main thread
+        final String apiUrl = getString(R.string.api_url);
+        mImageRenditions = new ImageRenditions(apiUrl);
+        mDiskExecutor.execute(() -> HttpClientProvider.warmUp(getHttpClient(), apiUrl));
     }
 
     /**
-     * Returns a client for http requests.
+     * Returns the shared client for http requests.
      *
      * @return an http client.
      */
     public OkHttpClient getHttpClient() {
         // *** COMMENT THE LINE BELOW FOR APPROOV ***
-        return new OkHttpClient.Builder().build();
+        return mHttpClientProvider.get();
 
         // *** UNCOMMENT THE LINE BELOW FOR APPROOV ***
         //return ApproovService.getOkHttpClient();
     }
 
     /**
-     * Returns an image downloader for http requests.
+     * Returns the on-disk store of photo information.
+     *
+     * @return the photo store.
+     */
+    PhotoStore getPhotoStore() {
+        return mPhotoStore;
+    }
+
+    /**
+     * Returns the executor for disk work kept off the main thread.
+     *
+     * It also runs delayed work, such as photo request retries.
+     *
+     * @return the disk executor.
+     */
+    public ScheduledExecutorService getDiskExecutor() {
+        return mDiskExecutor;
+    }
+
+    /**
+     * Records the time from start to the first photos shown, once.
+     */
+    void reportFirstPaint() {
+        if (mFirstPaintReported.compareAndSet(false, true)) {
+            Metrics.get().recordSince(Metrics.Timer.FIRST_PAINT, mStartNanos);
+        }
+    }
+
+    /**
+     * Writes the metrics to the app files dir, off the main thread.
+     *
+     * Pull them with {@code adb shell run-as com.criticalblue.android.astropiks cat files/metrics.txt}.
+     */
+    void dumpMetrics() {
+        final File file = new File(getFilesDir(), METRICS_FILE_NAME);
+        mDiskExecutor.execute(() -> Metrics.get().dump(file));
+    }
+
+    /**
+     * Returns the retry policy shared by all photo requests.
+     *
+     * @return the retry policy.
+     */
+    RetryPolicy getRetryPolicy() {
+        return mRetryPolicy;
+    }
+
+    /**
+     * Returns the image cache shared by every image downloader.
+     *
+     * @return the image cache.
+     */
+    synchronized ImageCache getImageCache() {
+      if (mImageCache == null) {
+        mImageCache = new ImageCache(
+          getHttpClient(),
+          getCacheDir(),
+          getResources().getInteger(R.integer.image_disk_cache_size_mb) * BYTES_PER_MB,
+          getResources().getInteger(R.integer.thumbnail_memory_cache_percent),
+          getResources().getInteger(R.integer.image_memory_cache_percent)
+        );
+      }
+      return mImageCache;
+    }
+
+    /**
+     * Returns the builder of image rendition urls, for thumbnails.
+     *
+     * @return the image renditions.
+     */
+    ImageRenditions getImageRenditions() {
+      return mImageRenditions;
+    }
+
+    /**
+     * Returns the shared image downloader for http requests.
+     *
+     * Decodes images at full resolution, so keep it for the detail screen.
      *
      * @return an http downloader.
      */
     public Picasso getImageDownloader() {
-      OkHttpClient okHttpClient = getHttpClient();
+      Picasso imageDownloader = mImageDownloader;
+      if (imageDownloader == null) {
+        synchronized (this) {
+          imageDownloader = mImageDownloader;
+          if (imageDownloader == null) {
+            imageDownloader = buildImageDownloader(getImageCache().getMemoryCache(), Bitmap.Config.ARGB_8888);
+            mImageDownloader = imageDownloader;
+          }
+        }
+      }
+      return imageDownloader;
+    }
+
+    /**
+     * Returns the shared thumbnail downloader for http requests.
+     *
+     * Its memory tier is separate from the full resolution one, so opening
+     * a photo never evicts the thumbnails of the whole grid; both share the
+     * disk tier.
+     *
+     * @return an http downloader.
+     */
+    public Picasso getThumbnailDownloader() {
+      Picasso thumbnailDownloader = mThumbnailDownloader;
+      if (thumbnailDownloader == null) {
+        synchronized (this) {
+          thumbnailDownloader = mThumbnailDownloader;
+          if (thumbnailDownloader == null) {
+            thumbnailDownloader = buildImageDownloader(getImageCache().getThumbnailMemoryCache(), Bitmap.Config.RGB_565);
+            mThumbnailDownloader = thumbnailDownloader;
+          }
+        }
+      }
+      return thumbnailDownloader;
+    }
+
+    /**
+     * Starts a thumbnail request for an image.
+     *
+     * The thumbnail is decoded in RGB_565, without transparency, and is
+     * cropped to the target size without ever being scaled up; the caller
+     * sets the target size, usually with {@link RequestCreator#fit()}.
+     *
+     * @param url the image url.
+     * @return the request.
+     */
+    public RequestCreator loadThumbnail(String url) {
+      return getThumbnailDownloader()
+        .load(url)
+        .config(Bitmap.Config.RGB_565)
+        .centerCrop()
+        .onlyScaleDown();
+    }
 
+    private Picasso buildImageDownloader(Cache memoryCache, Bitmap.Config bitmapConfig) {
       return new Picasso.Builder(this)
-        .downloader(new OkHttp3Downloader(okHttpClient))
+        .downloader(new OkHttp3Downloader(getImageCache().getHttpClient()))
+        .memoryCache(memoryCache)
+        .defaultBitmapConfig(bitmapConfig)
         .listener((picasso, uri, exception) -> {
           Log.w("ASTROPIKS_APP", "FAILED TO LOAD IMAGE: " + uri.toString());
           Log.e("ASTROPIKS_APP", exception.toString());
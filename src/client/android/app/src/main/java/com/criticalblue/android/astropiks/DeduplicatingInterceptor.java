@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Shares one network call between concurrent identical GET requests.
+ *
+ * Requests are keyed by URL and Accept header: for APOD metadata the URL
+ * names the days requested, for images the image itself, and the Accept
+ * header picks the encoding the proxy answers in. A request arriving while
+ * the same one is in flight waits for that call and gets a copy of its
+ * response, so a grid bind followed by a quick tap on the photo downloads it
+ * only once. A response nobody waited for streams to its caller as is; only
+ * a shared one is buffered in memory to hand out the copies.
+ */
+class DeduplicatingInterceptor implements Interceptor {
+
+    /**
+     * Thrown when the call leading a shared request was cancelled.
+     */
+    private static final class LeaderCanceledException extends IOException {
+        LeaderCanceledException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * A response, streaming until shared, then buffered and copied for every
+     * request sharing it.
+     */
+    private static final class SharedResponse {
+        private final Response mResponse;
+        private final byte[] mBody;
+
+        SharedResponse(Response response, byte[] body) {
+            mResponse = response;
+            mBody = body;
+        }
+
+        SharedResponse buffer() throws IOException {
+            ResponseBody body = mResponse.body();
+            if (body == null) {
+                return new SharedResponse(mResponse, new byte[0]);
+            }
+            try (ResponseBody streaming = body) {
+                return new SharedResponse(mResponse, streaming.bytes());
+            }
+        }
+
+        Response toResponse(Request request) {
+            if (mBody == null) {
+                return mResponse;
+            }
+
+            // cache and network responses are kept, e.g. for the image downloader
+            ResponseBody body = mResponse.body();
+            return mResponse.newBuilder()
+                    .request(request)
+                    .body(ResponseBody.create(mBody, body != null ? body.contentType() : null))
+                    .build();
+        }
+    }
+
+    private final SingleFlight<String, SharedResponse> mSingleFlight = new SingleFlight<>();
+
+    @NonNull
+    @Override
+    public Response intercept(@NonNull final Chain chain) throws IOException {
+        final Request request = chain.request();
+        if (!"GET".equals(request.method())) {
+            return chain.proceed(request);
+        }
+
+        SharedResponse response;
+        try {
+            response = mSingleFlight.execute(keyOf(request), () -> proceed(chain, request), SharedResponse::buffer);
+        } catch (SingleFlight.SharedFailureException e) {
+            if (!(e.getCause() instanceof LeaderCanceledException) || chain.call().isCanceled()) {
+                throw e;
+            }
+
+            // only the call we waited for was cancelled, go on alone
+            response = proceed(chain, request);
+        }
+        return response.toResponse(request);
+    }
+
+    /**
+     * Returns the # of requests which shared another request's call.
+     *
+     * @return the # of collapsed requests.
+     */
+    int getCollapsedCount() {
+        return mSingleFlight.getCollapsedCount();
+    }
+
+    private static String keyOf(Request request) {
+        String accept = request.header("Accept");
+        return accept != null ? request.url() + "\n" + accept : request.url().toString();
+    }
+
+    private static SharedResponse proceed(Chain chain, Request request) throws IOException {
+        try {
+            return new SharedResponse(chain.proceed(request), null);
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                throw new LeaderCanceledException(e);
+            }
+            throw e;
+        }
+    }
+}
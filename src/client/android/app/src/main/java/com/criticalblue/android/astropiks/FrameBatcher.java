@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces update requests into at most one flush per frame.
+ *
+ * Updates may be requested from any thread; however many arrive before the
+ * next frame, the flush runs once, on the thread the frames are scheduled
+ * on. The flush should apply the latest state rather than each update, so
+ * nothing is lost by skipping the intermediate ones.
+ */
+class FrameBatcher {
+
+    /**
+     * Schedules work for the next frame.
+     */
+    interface FrameScheduler {
+        void postFrameCallback(Runnable callback);
+    }
+
+    private final FrameScheduler mFrameScheduler;
+    private final Runnable mFlush;
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private final AtomicInteger mFrameCount = new AtomicInteger();
+
+    /**
+     * Creates a batcher.
+     *
+     * @param frameScheduler the frame scheduler.
+     * @param flush          the work applying the updates.
+     */
+    FrameBatcher(FrameScheduler frameScheduler, Runnable flush) {
+        mFrameScheduler = frameScheduler;
+        mFlush = flush;
+    }
+
+    /**
+     * Returns a scheduler for the frames of the calling thread, which must
+     * be a looper thread, usually the main thread.
+     *
+     * @return the frame scheduler.
+     */
+    static FrameScheduler choreographer() {
+        final Choreographer choreographer = Choreographer.getInstance();
+        return callback -> choreographer.postFrameCallback(frameTimeNanos -> callback.run());
+    }
+
+    /**
+     * Requests a flush on the next frame, unless one is already pending.
+     */
+    void requestFlush() {
+        if (mScheduled.compareAndSet(false, true)) {
+            mFrameScheduler.postFrameCallback(this::doFrame);
+        }
+    }
+
+    /**
+     * Returns the # of frames a flush ran in.
+     *
+     * @return the # of flushes so far.
+     */
+    int getFrameCount() {
+        return mFrameCount.get();
+    }
+
+    private void doFrame() {
+        // updates arriving from now on need another frame
+        mScheduled.set(false);
+        mFrameCount.incrementAndGet();
+        mFlush.run();
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Cache;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Provides the http client shared by the whole application.
+ *
+ * The client is created lazily on first use and then reused, so every
+ * request shares one connection pool, one dispatcher and one disk cache.
+ * Concurrent identical GET requests share a single call.
+ *
+ * HTTP/2 is preferred, so once a connection to the proxy is up, metadata
+ * and proxied image requests all multiplex on it; {@link #warmUp} opens it
+ * ahead of the first request.
+ */
+class HttpClientProvider {
+
+    private static final String CACHE_DIR_NAME = "http";
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    private final Dispatcher mDispatcher;
+    private final ConnectionPool mConnectionPool;
+    private final Cache mCache;
+    private final DeduplicatingInterceptor mDeduplicatingInterceptor = new DeduplicatingInterceptor();
+
+    private volatile OkHttpClient mHttpClient;
+
+    /**
+     * Creates a provider.
+     *
+     * @param cacheDir           the directory holding the http disk cache.
+     * @param cacheSize          the maximum size of the disk cache in bytes.
+     * @param maxIdleConnections the maximum # of idle connections kept in the pool.
+     * @param maxRequestsPerHost the maximum # of concurrent requests to a single host.
+     */
+    HttpClientProvider(File cacheDir, long cacheSize, int maxIdleConnections, int maxRequestsPerHost) {
+        this(cacheDir, cacheSize, maxIdleConnections, KEEP_ALIVE_MINUTES, maxRequestsPerHost);
+    }
+
+    /**
+     * Creates a provider.
+     *
+     * @param cacheDir           the directory holding the http disk cache.
+     * @param cacheSize          the maximum size of the disk cache in bytes.
+     * @param maxIdleConnections the maximum # of idle connections kept in the pool.
+     * @param keepAliveMinutes   how long an idle connection is kept in the pool.
+     * @param maxRequestsPerHost the maximum # of concurrent requests to a single host.
+     */
+    HttpClientProvider(File cacheDir, long cacheSize, int maxIdleConnections, long keepAliveMinutes,
+                       int maxRequestsPerHost) {
+        // shared by every builder, so clients built on top, e.g. for Approov, share the
+        // request limits, the pool and the disk cache
+        mDispatcher = new Dispatcher();
+        mDispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        mConnectionPool = new ConnectionPool(maxIdleConnections, keepAliveMinutes, TimeUnit.MINUTES);
+        mCache = new Cache(new File(cacheDir, CACHE_DIR_NAME), cacheSize);
+    }
+
+    /**
+     * Returns the shared http client, creating it on first use.
+     *
+     * @return the http client.
+     */
+    OkHttpClient get() {
+        OkHttpClient httpClient = mHttpClient;
+        if (httpClient == null) {
+            synchronized (this) {
+                httpClient = mHttpClient;
+                if (httpClient == null) {
+                    httpClient = newBuilder().build();
+                    mHttpClient = httpClient;
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    /**
+     * Returns the # of requests which shared another request's call.
+     *
+     * @return the # of collapsed requests.
+     */
+    int getCollapsedRequestCount() {
+        return mDeduplicatingInterceptor.getCollapsedCount();
+    }
+
+    /**
+     * Opens a connection to a host in the background, ahead of its first
+     * request, and leaves it in the client's pool.
+     *
+     * Sends a HEAD request for the root of the host; DNS, TCP and TLS setup
+     * show in the call timings of that request instead of the first real one.
+     *
+     * @param client the client to warm up.
+     * @param url    any URL on the host, e.g. the API URL.
+     */
+    static void warmUp(OkHttpClient client, String url) {
+        HttpUrl hostUrl = url != null ? HttpUrl.parse(url) : null;
+        if (hostUrl == null) {
+            Log.e("ASTROPIKS_APP", "No host to warm up: " + url);
+            return;
+        }
+
+        Request request = new Request.Builder()
+                .url(hostUrl.newBuilder().encodedPath("/").query(null).build())
+                .head()
+                .build();
+
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                // the first real request connects instead
+                Log.e("ASTROPIKS_APP", "Failed to warm up: " + e);
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                // whatever the status, the connection is now in the pool
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Returns a builder configured with the shared pool, dispatcher, cache
+     * request deduplication and call timings, preferring HTTP/2.
+     *
+     * @return an http client builder.
+     */
+    OkHttpClient.Builder newBuilder() {
+        return new OkHttpClient.Builder()
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionPool(mConnectionPool)
+                .dispatcher(mDispatcher)
+                .cache(mCache)
+                .addInterceptor(mDeduplicatingInterceptor)
+                .eventListenerFactory(MetricsEventListener.factory(Metrics.get()));
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import androidx.annotation.NonNull;
+
+import com.squareup.picasso.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Caches images in two tiers, shared by the gallery and the detail screen.
+ *
+ * Decoded bitmaps are kept in memory, in LRU caches sized as a fraction of
+ * the heap: one for thumbnails and one for full resolution images. Encoded
+ * images are kept on disk, in an http cache of bounded size which evicts
+ * the least recently used images, so a restart does not download everything
+ * again. The grid loads smaller renditions of the images from the proxy, so
+ * a thumbnail and its full resolution image are separate downloads: opening
+ * a photo no longer reuses the bytes its thumbnail fetched.
+ */
+class ImageCache {
+
+    /**
+     * A snapshot of the cache counters.
+     */
+    static final class Stats {
+        final int memoryHits;
+        final int memoryMisses;
+        final int memoryEvictions;
+        final int diskHits;
+        final int diskMisses;
+        final long diskSize;
+
+        private Stats(int memoryHits, int memoryMisses, int memoryEvictions,
+                      int diskHits, int diskMisses, long diskSize) {
+            this.memoryHits = memoryHits;
+            this.memoryMisses = memoryMisses;
+            this.memoryEvictions = memoryEvictions;
+            this.diskHits = diskHits;
+            this.diskMisses = diskMisses;
+            this.diskSize = diskSize;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "memory %d hits, %d misses, %d evictions; disk %d hits, %d misses, %d bytes",
+                    memoryHits, memoryMisses, memoryEvictions, diskHits, diskMisses, diskSize);
+        }
+    }
+
+    private static final String CACHE_DIR_NAME = "images";
+
+    // APOD images never change once published
+    private static final String IMAGE_CACHE_CONTROL = "public, max-age=31536000";
+
+    private final LruCache mThumbnailMemoryCache;
+    private final LruCache mMemoryCache;
+    private final Cache mDiskCache;
+    private final OkHttpClient mHttpClient;
+
+    /**
+     * Creates an image cache.
+     *
+     * @param httpClient       the shared http client, whose pool and dispatcher are reused.
+     * @param cacheDir         the directory holding the disk tier.
+     * @param diskCacheSize    the maximum size of the disk tier in bytes.
+     * @param thumbnailPercent the heap percentage for decoded thumbnails.
+     * @param imagePercent     the heap percentage for decoded full resolution images.
+     */
+    ImageCache(OkHttpClient httpClient, File cacheDir, long diskCacheSize, int thumbnailPercent, int imagePercent) {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        mThumbnailMemoryCache = new LruCache((int) (maxMemory / 100 * thumbnailPercent));
+        mMemoryCache = new LruCache((int) (maxMemory / 100 * imagePercent));
+        mDiskCache = new Cache(new File(cacheDir, CACHE_DIR_NAME), diskCacheSize);
+        mHttpClient = newHttpClient(httpClient, mDiskCache);
+    }
+
+    /**
+     * Returns an http client for images, caching them in the disk tier.
+     *
+     * Images served without any caching headers are cached anyway, as they
+     * never change.
+     *
+     * @param httpClient the shared http client.
+     * @param diskCache  the disk tier.
+     * @return the image http client.
+     */
+    static OkHttpClient newHttpClient(OkHttpClient httpClient, Cache diskCache) {
+        return httpClient.newBuilder()
+                .cache(diskCache)
+                .addNetworkInterceptor(chain -> {
+                    Response response = chain.proceed(chain.request());
+                    if (response.isSuccessful() && response.header("Cache-Control") == null
+                            && response.header("Expires") == null) {
+                        return response.newBuilder()
+                                .header("Cache-Control", IMAGE_CACHE_CONTROL)
+                                .build();
+                    }
+                    return response;
+                })
+                .build();
+    }
+
+    /**
+     * Returns the http client downloading through the disk tier.
+     *
+     * @return the image http client.
+     */
+    OkHttpClient getHttpClient() {
+        return mHttpClient;
+    }
+
+    /**
+     * Returns the memory tier for decoded thumbnails.
+     *
+     * @return the thumbnail memory cache.
+     */
+    LruCache getThumbnailMemoryCache() {
+        return mThumbnailMemoryCache;
+    }
+
+    /**
+     * Returns the memory tier for decoded full resolution images.
+     *
+     * @return the image memory cache.
+     */
+    LruCache getMemoryCache() {
+        return mMemoryCache;
+    }
+
+    /**
+     * Returns the current cache counters, both memory tiers added up.
+     *
+     * @return the counters.
+     */
+    Stats getStats() {
+        return new Stats(
+                mThumbnailMemoryCache.hitCount() + mMemoryCache.hitCount(),
+                mThumbnailMemoryCache.missCount() + mMemoryCache.missCount(),
+                mThumbnailMemoryCache.evictionCount() + mMemoryCache.evictionCount(),
+                mDiskCache.hitCount(),
+                mDiskCache.networkCount(),
+                diskSize());
+    }
+
+    private long diskSize() {
+        try {
+            return mDiskCache.size();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Builds the urls of the smaller image renditions served by the proxy.
+ *
+ * Only the images proxied through the api host have renditions, other urls
+ * are left as they are. Widths are rounded up as the proxy does, so cells
+ * of about the same size share one cached rendition.
+ */
+class ImageRenditions {
+
+    static final int WIDTH_STEP = 64;
+    static final String FORMAT = "webp";
+
+    private final HttpUrl mProxyUrl;
+
+    /**
+     * Creates the rendition urls builder.
+     *
+     * @param proxyUrl the api url, whose host serves the renditions.
+     */
+    ImageRenditions(String proxyUrl) {
+        mProxyUrl = HttpUrl.parse(proxyUrl);
+    }
+
+    /**
+     * Returns the url of an image rendition.
+     *
+     * @param imageUrl the url of the original image.
+     * @param width    the width of the rendition, in pixels.
+     * @return the rendition url, or the original one if the proxy does not serve it.
+     */
+    String urlOf(String imageUrl, int width) {
+        HttpUrl url = imageUrl != null ? HttpUrl.parse(imageUrl) : null;
+        if (url == null || mProxyUrl == null || width <= 0
+                || !url.host().equals(mProxyUrl.host()) || url.port() != mProxyUrl.port()) {
+            return imageUrl;
+        }
+
+        int roundedWidth = (width + WIDTH_STEP - 1) / WIDTH_STEP * WIDTH_STEP;
+        return url.newBuilder()
+                .setQueryParameter("w", Integer.toString(roundedWidth))
+                .setQueryParameter("format", FORMAT)
+                .build()
+                .toString();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records hot path timings (singleton).
+ *
+ * Each timer keeps a histogram of durations in nanoseconds; recording
+ * never allocates, so timings can be taken on every request and every
+ * bind. The histograms are dumped on demand, as text.
+ */
+class Metrics {
+
+    /**
+     * The timings recorded.
+     */
+    enum Timer {
+        /** Resolving the host name of a request. */
+        DNS,
+        /** Opening a connection, including TLS. */
+        CONNECT,
+        /** The TLS handshake of a connection. */
+        TLS,
+        /** From sending a request to its first response byte. */
+        TTFB,
+        /** A whole http call. */
+        CALL,
+        /** Reading and parsing a JSON APOD response body. */
+        JSON_PARSE,
+        /** Reading and parsing a compact, CBOR, APOD response body. */
+        CBOR_PARSE,
+        /** From binding an image to showing it, decode included. */
+        IMAGE_LOAD,
+        /** From application start to the first photos in the grid. */
+        FIRST_PAINT
+    }
+
+    private static Metrics sMetrics;
+
+    private final Histogram[] mHistograms = new Histogram[Timer.values().length];
+
+    public static synchronized Metrics get() {
+        if (sMetrics == null) {
+            sMetrics = new Metrics();
+        }
+        return sMetrics;
+    }
+
+    Metrics() {
+        for (int i = 0; i < mHistograms.length; ++i) {
+            mHistograms[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param timer the timer.
+     * @param nanos the duration in nanoseconds.
+     */
+    void record(Timer timer, long nanos) {
+        mHistograms[timer.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the time elapsed since a start time.
+     *
+     * @param timer      the timer.
+     * @param startNanos the start time, from {@link System#nanoTime()}.
+     */
+    void recordSince(Timer timer, long startNanos) {
+        record(timer, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the histogram of a timer.
+     *
+     * @param timer the timer.
+     * @return the histogram, in nanoseconds.
+     */
+    Histogram getHistogram(Timer timer) {
+        return mHistograms[timer.ordinal()];
+    }
+
+    /**
+     * Writes a summary of every timer, in milliseconds.
+     *
+     * @param writer the writer.
+     */
+    void dump(Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        out.printf(Locale.US, "%-12s %8s %9s %9s %9s %9s %9s%n", "timer", "count", "mean", "p50", "p90", "p99", "max");
+        for (Timer timer : Timer.values()) {
+            Histogram histogram = getHistogram(timer);
+            out.printf(Locale.US, "%-12s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    timer.name().toLowerCase(Locale.US),
+                    histogram.getCount(),
+                    millis(histogram.getMean()),
+                    millis(histogram.getPercentile(50)),
+                    millis(histogram.getPercentile(90)),
+                    millis(histogram.getPercentile(99)),
+                    millis(histogram.getMax()));
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes a summary of every timer to a file, replacing it.
+     *
+     * @param file the file.
+     */
+    void dump(File file) {
+        try (Writer writer = new FileWriter(file)) {
+            dump(writer);
+        } catch (IOException e) {
+            Log.e("ASTROPIKS_APP", "Failed to dump metrics: " + e);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
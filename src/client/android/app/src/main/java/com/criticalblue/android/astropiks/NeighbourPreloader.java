@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+
+import androidx.annotation.MainThread;
+
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Target;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Preloads the full resolution images of the pages next to the one shown.
+ *
+ * When a page is selected, the images of the pages within a distance of it
+ * are decoded into the memory tier at low priority, so swiping to a
+ * neighbour shows an image already decoded. Preloads of pages out of that
+ * distance are cancelled. A selected page whose image was preloaded counts
+ * as a hit.
+ *
+ * Used from the main thread only, where the image downloader calls back.
+ */
+@MainThread
+class NeighbourPreloader {
+
+    private static final int NO_PAGE = -1;
+
+    /**
+     * Marks an image as preloaded once decoded; the bitmap itself is left
+     * to the memory tier.
+     */
+    private final class PreloadTarget implements Target {
+        private final String mUrl;
+
+        PreloadTarget(String url) {
+            mUrl = url;
+        }
+
+        @Override
+        public void onBitmapLoaded(Bitmap bitmap, Picasso.LoadedFrom from) {
+            if (mTargets.get(mUrl) == this) {
+                mPreloaded.add(mUrl);
+            }
+        }
+
+        @Override
+        public void onBitmapFailed(Exception e, Drawable errorDrawable) {
+        }
+
+        @Override
+        public void onPrepareLoad(Drawable placeHolderDrawable) {
+        }
+    }
+
+    private final Picasso mImageDownloader;
+    private final List<String> mUrls;
+    private final int mDistance;
+
+    // the downloader only keeps weak references to targets
+    private final Map<String, PreloadTarget> mTargets = new HashMap<>();
+    private final Set<String> mPreloaded = new HashSet<>();
+    private int mSelected = NO_PAGE;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * Creates a preloader.
+     *
+     * @param imageDownloader the full resolution image downloader.
+     * @param urls            the image url of each page, null for none yet, read on
+     *                        every selection.
+     * @param distance        the # of pages preloaded on each side of the one shown.
+     */
+    NeighbourPreloader(Picasso imageDownloader, List<String> urls, int distance) {
+        mImageDownloader = imageDownloader;
+        mUrls = urls;
+        mDistance = distance;
+    }
+
+    /**
+     * Preloads the neighbours of a page, cancelling the other preloads.
+     *
+     * @param position the position of the page selected.
+     */
+    void onPageSelected(int position) {
+        String url = mUrls.get(position);
+        if (mSelected != NO_PAGE && mSelected != position && url != null) {
+            if (mPreloaded.contains(url)) {
+                ++mHitCount;
+            } else {
+                ++mMissCount;
+            }
+        }
+        mSelected = position;
+
+        int first = Math.max(0, position - mDistance);
+        int last = Math.min(mUrls.size() - 1, position + mDistance);
+        Set<String> nearby = new HashSet<>();
+        for (int i = first; i <= last; ++i) {
+            if (mUrls.get(i) != null) {
+                nearby.add(mUrls.get(i));
+            }
+        }
+
+        Iterator<Map.Entry<String, PreloadTarget>> targets = mTargets.entrySet().iterator();
+        while (targets.hasNext()) {
+            Map.Entry<String, PreloadTarget> target = targets.next();
+            if (!nearby.contains(target.getKey())) {
+                mImageDownloader.cancelRequest(target.getValue());
+                mPreloaded.remove(target.getKey());
+                targets.remove();
+            }
+        }
+
+        // the page shown loads its own image, a preload already running is kept
+        nearby.remove(url);
+        for (String neighbour : nearby) {
+            if (!mTargets.containsKey(neighbour)) {
+                preload(neighbour);
+            }
+        }
+    }
+
+    /**
+     * Cancels every preload.
+     */
+    void cancel() {
+        for (PreloadTarget target : mTargets.values()) {
+            mImageDownloader.cancelRequest(target);
+        }
+        mTargets.clear();
+        mPreloaded.clear();
+    }
+
+    /**
+     * Tells whether the image of a page is preloaded.
+     *
+     * @param position the position of the page.
+     * @return true if its image is decoded.
+     */
+    boolean isPreloaded(int position) {
+        String url = mUrls.get(position);
+        return url != null && mPreloaded.contains(url);
+    }
+
+    /**
+     * Returns the # of images being preloaded or preloaded.
+     *
+     * @return the # of preloads.
+     */
+    int getPreloadCount() {
+        return mTargets.size();
+    }
+
+    /**
+     * Returns the # of pages selected with their image preloaded.
+     *
+     * @return the # of hits.
+     */
+    int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the # of pages selected before their image was preloaded.
+     *
+     * @return the # of misses.
+     */
+    int getMissCount() {
+        return mMissCount;
+    }
+
+    private void preload(String url) {
+        PreloadTarget target = new PreloadTarget(url);
+        mTargets.put(url, target);
+        mImageDownloader.load(url)
+                .priority(Picasso.Priority.LOW)
+                .into(target);
+    }
+}
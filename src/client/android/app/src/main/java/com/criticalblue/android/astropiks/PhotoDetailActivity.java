@@ -18,27 +18,224 @@ package com.criticalblue.android.astropiks;
 
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
 import androidx.fragment.app.Fragment;
+import androidx.viewpager2.adapter.FragmentStateAdapter;
+import androidx.viewpager2.widget.ViewPager2;
 
-import java.util.UUID;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
- * Contains the photo detail fragment.
+ * Pages through the photo details, one day per page.
+ *
+ * The pages are the photos of the collection when the activity is created,
+ * kept across restarts so the pager position stays valid; the photo opened
+ * is the first page shown. The full resolution images next to the page
+ * shown are preloaded. After process death the collection is empty, so the
+ * photos next to the page shown are read back from the photo store, or
+ * fetched, before their images are preloaded.
  */
-public class PhotoDetailActivity extends SingleFragmentActivity {
+public class PhotoDetailActivity extends AppCompatActivity {
 
     private static final String EXTRA_PHOTO_ID = "com.criticalblue.android.astropix.photo_id";
+    private static final String KEY_PAGE_IDS = "page_ids";
+    private static final SampledLog sPreloadLog = new SampledLog(50, 1000);
+
+    /**
+     * Creates the detail fragment of each page.
+     */
+    private static final class PhotoPagerAdapter extends FragmentStateAdapter {
+        private final int[] mPhotoIds;
+
+        PhotoPagerAdapter(AppCompatActivity activity, int[] photoIds) {
+            super(activity);
+            mPhotoIds = photoIds;
+        }
+
+        @NonNull
+        @Override
+        public Fragment createFragment(int position) {
+            return PhotoDetailFragment.newInstance(mPhotoIds[position]);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mPhotoIds.length;
+        }
+    }
+
+    private int[] mPageIds;
+    private ViewPager2 mPager;
+    private NeighbourPreloader mPreloader;
+    private int mPreloadDistance;
+    private PhotoRequester.PendingRequest mPendingNeighbours;
+    private final Set<Integer> mRestoreRequested = new HashSet<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ViewPager2.OnPageChangeCallback mPageChangeCallback = new ViewPager2.OnPageChangeCallback() {
+        @Override
+        public void onPageSelected(int position) {
+            selectPage(position);
+        }
+    };
 
-    public static Intent newIntent(Context packageContext, UUID photoId) {
+    public static Intent newIntent(Context packageContext, int photoId) {
         Intent intent = new Intent(packageContext, PhotoDetailActivity.class);
         intent.putExtra(EXTRA_PHOTO_ID, photoId);
         return intent;
     }
 
     @Override
-    protected Fragment createFragment() {
-        UUID photoId = (UUID) getIntent().getSerializableExtra(EXTRA_PHOTO_ID);
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_photo_pager);
+
+        int photoId = getIntent().getIntExtra(EXTRA_PHOTO_ID, 0);
+        mPageIds = savedInstanceState != null ? savedInstanceState.getIntArray(KEY_PAGE_IDS) : null;
+        if (mPageIds == null) {
+            mPageIds = pageIdsOf(PhotoManager.get().getPhotos(), photoId);
+        }
+
+        mPreloadDistance = getResources().getInteger(R.integer.detail_preload_distance);
+        mPreloader = new NeighbourPreloader(
+                ((App) getApplication()).getImageDownloader(),
+                urlsOf(mPageIds),
+                mPreloadDistance);
+
+        mPager = (ViewPager2) findViewById(R.id.photo_pager);
+        mPager.setAdapter(new PhotoPagerAdapter(this, mPageIds));
+        if (savedInstanceState == null) {
+            mPager.setCurrentItem(positionOf(mPageIds, photoId), false);
+        }
+        mPager.registerOnPageChangeCallback(mPageChangeCallback);
+    }
+
+    @Override
+    protected void onPostCreate(Bundle savedInstanceState) {
+        super.onPostCreate(savedInstanceState);
+
+        // the pager does not report the page it starts on, which is restored by now
+        selectPage(mPager.getCurrentItem());
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putIntArray(KEY_PAGE_IDS, mPageIds);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mPager.unregisterOnPageChangeCallback(mPageChangeCallback);
+        mPreloader.cancel();
+        if (mPendingNeighbours != null) {
+            mPendingNeighbours.cancel();
+        }
+        if (sPreloadLog.isLoggable()) {
+            sPreloadLog.log("DETAIL PRELOAD: " + mPreloader.getHitCount() + " hits, "
+                    + mPreloader.getMissCount() + " misses");
+        }
+        super.onDestroy();
+    }
+
+    private void selectPage(int position) {
+        mPreloader.onPageSelected(position);
+        if (mPendingNeighbours == null) {
+            restoreNeighbours(position);
+        }
+    }
+
+    private void restoreNeighbours(int position) {
+        int first = Math.max(0, position - mPreloadDistance);
+        int last = Math.min(mPageIds.length - 1, position + mPreloadDistance);
+        // each day asked for once, a video day never shows up
+        boolean missing = false;
+        for (int i = first; i <= last; ++i) {
+            if (PhotoManager.get().getPhoto(mPageIds[i]) == null && mRestoreRequested.add(mPageIds[i])) {
+                missing = true;
+            }
+        }
+        if (!missing) {
+            return;
+        }
+
+        // one window from the newest to the oldest neighbour, mostly read from the photo store
+        int newestDay = mPageIds[first];
+        PhotoRequester photoRequester = new PhotoRequester(this, (App) getApplication());
+        mPendingNeighbours = photoRequester.getPhotos(newestDay, newestDay - mPageIds[last] + 1,
+                new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                List<Photo> restored = new ArrayList<>(photos.size());
+                for (Photo photo : photos) {
+                    if (!photo.isPlaceholder()) {
+                        restored.add(photo);
+                    }
+                }
+                PhotoManager.get().addPhotos(restored);
+
+                mMainHandler.post(() -> {
+                    mPendingNeighbours = null;
+                    if (!isDestroyed()) {
+                        // preload the neighbours now known; a failed or video day is left out
+                        mPreloader.onPageSelected(mPager.getCurrentItem());
+                    }
+                });
+            }
+        });
+    }
+
+    private static int[] pageIdsOf(List<Photo> photos, int photoId) {
+        List<Integer> ids = new ArrayList<>(photos.size());
+        for (Photo photo : photos) {
+            if (!photo.isPlaceholder()) {
+                ids.add(photo.getId());
+            }
+        }
+        if (!ids.contains(photoId)) {
+            // e.g. restored after process death, the collection is empty
+            ids.clear();
+            ids.add(photoId);
+        }
+
+        int[] pageIds = new int[ids.size()];
+        for (int i = 0; i < pageIds.length; ++i) {
+            pageIds[i] = ids.get(i);
+        }
+        return pageIds;
+    }
+
+    private static List<String> urlsOf(final int[] pageIds) {
+        // looked up on every page selection, as photos restored after process death arrive later
+        return new AbstractList<String>() {
+            @Override
+            public String get(int position) {
+                Photo photo = PhotoManager.get().getPhoto(pageIds[position]);
+                return photo != null ? photo.getUrl() : null;
+            }
+
+            @Override
+            public int size() {
+                return pageIds.length;
+            }
+        };
+    }
 
-        return PhotoDetailFragment.newInstance(photoId);
+    private static int positionOf(int[] pageIds, int photoId) {
+        for (int i = 0; i < pageIds.length; ++i) {
+            if (pageIds[i] == photoId) {
+                return i;
+            }
+        }
+        return 0;
     }
 }
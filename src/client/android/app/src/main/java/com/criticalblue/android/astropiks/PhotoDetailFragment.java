@@ -17,9 +17,10 @@
 package com.criticalblue.android.astropiks;
 
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.fragment.app.Fragment;
 
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -27,8 +28,8 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import java.text.SimpleDateFormat;
+import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
 
 /**
  * Displays a photo.
@@ -36,12 +37,14 @@ import java.util.UUID;
 public class PhotoDetailFragment extends Fragment {
 
     private static final String ARG_POD_ID = "pod_id";
+    private static final SampledLog sImageLog = new SampledLog(1, 250);
     private App mApp;
     private Photo mPhoto;
+    private PhotoRequester.PendingRequest mPendingPhoto;
 
-  public static PhotoDetailFragment newInstance(UUID photoId) {
+  public static PhotoDetailFragment newInstance(int photoId) {
         Bundle args = new Bundle();
-        args.putSerializable(ARG_POD_ID, photoId);
+        args.putInt(ARG_POD_ID, photoId);
 
         PhotoDetailFragment fragment = new PhotoDetailFragment();
         fragment.setArguments(args);
@@ -52,20 +55,63 @@ public class PhotoDetailFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         mApp = (App) requireActivity().getApplication();
-        UUID photoId = (UUID) requireArguments().getSerializable(ARG_POD_ID);
+        int photoId = requireArguments().getInt(ARG_POD_ID);
         mPhoto = PhotoManager.get().getPhoto(photoId);
+
+        if (mPhoto == null && photoId >= 0) {
+            // restored after process death: read the day from the photo store, or fetch
+            // it again, off the main thread; the missing photo text shows meanwhile
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            PhotoRequester photoRequester = new PhotoRequester(requireActivity(), mApp);
+            mPendingPhoto = photoRequester.getPhotos(photoId, 1, new PhotoRequester.ResponseListener() {
+                @Override
+                public void receivedPhotos(List<Photo> photos) {
+                    // none for a video day, a placeholder telling why on failure
+                    if (!photos.isEmpty()) {
+                        Photo photo = photos.get(0);
+                        if (!photo.isPlaceholder()) {
+                            // back in the collection, for the pager's preloads and the gallery
+                            PhotoManager.get().addPhotos(photos);
+                        }
+                        mainHandler.post(() -> showPhoto(photo));
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (mPendingPhoto != null) {
+            mPendingPhoto.cancel();
+        }
     }
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View v = inflater.inflate(R.layout.fragment_photo_detail, container, false);
+        bindPhoto(v, mPhoto);
+        return v;
+    }
+
+    private void showPhoto(Photo photo) {
+        mPhoto = photo;
+        View v = getView();
+        if (v != null) {
+            bindPhoto(v, photo);
+        }
+    }
 
+    private void bindPhoto(View v, Photo photo) {
         TextView mTitleView = (TextView) v.findViewById(R.id.photo_title);
-        mTitleView.setText(getPhotoTitle(mPhoto));
+        mTitleView.setText(getPhotoTitle(photo));
 
         ImageView mImageView = (ImageView) v.findViewById(R.id.photo_image);
-        String photoURL = mPhoto.getUrl();
-        Log.i("ASTROPIKS_APP", "PHOTO IMAGE URL: " + photoURL);
+        String photoURL = photo != null ? photo.getUrl() : null;
+        if (sImageLog.isLoggable()) {
+            sImageLog.log("PHOTO IMAGE URL: " + SampledLog.redact(photoURL));
+        }
 
         if (photoURL != null) {
             mApp.getImageDownloader(/*mImageView.getContext()*/)
@@ -77,9 +123,7 @@ public class PhotoDetailFragment extends Fragment {
         }
 
         TextView mCaptionView = (TextView) v.findViewById(R.id.photo_caption);
-        mCaptionView.setText(getPhotoCaption(mPhoto));
-
-        return v;
+        mCaptionView.setText(getPhotoCaption(photo));
     }
 
     private String getPhotoTitle(Photo photo) {
@@ -22,12 +22,13 @@ import android.content.Intent;
 import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.squareup.picasso.Callback;
+
 import java.util.List;
 
 /**
@@ -35,12 +36,51 @@ import java.util.List;
  */
 public class PhotoGalleryAdapter extends RecyclerView.Adapter<PhotoGalleryAdapter.PhotoHolder> {
 
-    private final List<Photo> mPhotos;
     private final App mApp;
+    private final int mThumbnailWidth;
+    private List<Photo> mPhotos;
+
+    /**
+     * Creates the adapter.
+     *
+     * @param photoManager   the photo collection.
+     * @param app            the app.
+     * @param thumbnailWidth the width of a grid cell, in pixels.
+     */
+    public PhotoGalleryAdapter(PhotoManager photoManager, App app, int thumbnailWidth) {
+        mApp = app;
+        mThumbnailWidth = thumbnailWidth;
+        mPhotos = photoManager.getPhotos();
+    }
 
-    public PhotoGalleryAdapter(List<Photo> photos, App app) {
+    /**
+     * Shows a newer snapshot of the photo collection.
+     *
+     * Photos are only ever inserted into the collection, so the shown
+     * photos are matched in order and each run of new ones is notified as
+     * one inserted range. Must be called on the main thread.
+     *
+     * @param photos the snapshot, see {@link PhotoManager#getPhotos()}.
+     */
+    public void showPhotos(List<Photo> photos) {
+        List<Photo> shown = mPhotos;
         mPhotos = photos;
-        mApp = app;
+
+        int next = 0;
+        int position = 0;
+        while (position < photos.size()) {
+            if (next < shown.size() && photos.get(position) == shown.get(next)) {
+                position++;
+                next++;
+                continue;
+            }
+
+            int start = position;
+            while (position < photos.size() && (next >= shown.size() || photos.get(position) != shown.get(next))) {
+                position++;
+            }
+            notifyItemRangeInserted(start, position - start);
+        }
     }
 
     @NonNull
@@ -48,7 +88,7 @@ public class PhotoGalleryAdapter extends RecyclerView.Adapter<PhotoGalleryAdapte
     public PhotoHolder onCreateViewHolder(ViewGroup parent, int viewType) {
         View inflatedView = LayoutInflater.from(parent.getContext())
                 .inflate(R.layout.item_photo_gallery, parent, false);
-        return new PhotoHolder(inflatedView, mApp);
+        return new PhotoHolder(inflatedView, mApp, mThumbnailWidth);
     }
 
     @Override
@@ -64,14 +104,18 @@ public class PhotoGalleryAdapter extends RecyclerView.Adapter<PhotoGalleryAdapte
 
     public static class PhotoHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
+        private static final SampledLog sBindLog = new SampledLog(50, 1000);
+
         private final ImageView mItemImage;
         private Photo mPhoto;
         private final App mApp;
+        private final int mThumbnailWidth;
 
-        public PhotoHolder(View v, App app) {
+        public PhotoHolder(View v, App app, int thumbnailWidth) {
             super(v);
 
             mApp = app;
+            mThumbnailWidth = thumbnailWidth;
 
             mItemImage = (ImageView) v.findViewById(R.id.item_image);
             v.setOnClickListener(this);
@@ -80,13 +124,27 @@ public class PhotoGalleryAdapter extends RecyclerView.Adapter<PhotoGalleryAdapte
         public void bindPhoto(Photo photo) {
             mPhoto = photo;
             String photoURL = mPhoto.getUrl();
-            Log.i("ASTROPIKS_APP", "PHOTO IMAGE THUMBNAIL URL: " + photoURL);
+            if (sBindLog.isLoggable()) {
+                sBindLog.log("PHOTO IMAGE THUMBNAIL URL: " + SampledLog.redact(photoURL));
+            }
 
             if (photoURL != null) {
-                mApp.getImageDownloader()
-                        .load(photoURL)
+                final long start = System.nanoTime();
+
+                // download a rendition about the cell size, then decode at the measured cell size
+                mApp.loadThumbnail(mApp.getImageRenditions().urlOf(photoURL, mThumbnailWidth))
+                        .fit()
                         .error(R.drawable.no_image)
-                        .into(mItemImage);
+                        .into(mItemImage, new Callback() {
+                            @Override
+                            public void onSuccess() {
+                                Metrics.get().recordSince(Metrics.Timer.IMAGE_LOAD, start);
+                            }
+
+                            @Override
+                            public void onError(Exception e) {
+                            }
+                        });
             } else {
                 mItemImage.setImageResource(R.drawable.no_image);
             }
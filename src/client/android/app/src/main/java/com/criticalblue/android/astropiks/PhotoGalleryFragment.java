@@ -24,19 +24,21 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
 public class PhotoGalleryFragment extends Fragment implements PhotoRequester.ResponseListener {
     private static final String TAG = "PhotoGalleryFragment";
     private static final int SPAN = 2;
+    private static final int PAGE_SIZE = 6 * SPAN;
 
-    private List<Photo> mPhotos = new ArrayList<>();
+    private PhotoManager mPhotoManager;
     private PhotoRequester mPhotoRequester;
+    private PhotoRepository mPhotoRepository;
+    private PhotoPrefetcher mPhotoPrefetcher;
     private GridLayoutManager mGridLayoutManager;
     private PhotoGalleryAdapter mPhotoGalleryAdapter;
+    private FrameBatcher mGalleryUpdates;
     private App mApp;
 
     public static PhotoGalleryFragment newInstance() {
@@ -51,8 +53,27 @@ public class PhotoGalleryFragment extends Fragment implements PhotoRequester.Res
         // create model and data source
         mApp = (App) requireActivity().getApplication();
 
-        mPhotos = PhotoManager.get().getPhotos();
-        mPhotoRequester = new PhotoRequester(getActivity(), mApp, this);
+        mPhotoManager = PhotoManager.get();
+        mPhotoRequester = new PhotoRequester(getActivity(), mApp);
+
+        // stored days first, the rest synced in the background
+        mPhotoRepository = new PhotoRepository(
+          mPhotoRequester,
+          mApp.getPhotoStore(),
+          mApp.getDiskExecutor(),
+          getResources().getInteger(R.integer.sync_interval_ms),
+          this
+        );
+        mPhotoPrefetcher = new PhotoPrefetcher(
+          mPhotoRepository,
+          PAGE_SIZE,
+          getResources().getInteger(R.integer.prefetch_pages_ahead),
+          getResources().getInteger(R.integer.prefetch_max_in_flight),
+          this
+        );
+
+        // show arrivals at most once per frame
+        mGalleryUpdates = new FrameBatcher(FrameBatcher.choreographer(), this::showPhotos);
     }
 
     @Override
@@ -66,14 +87,15 @@ public class PhotoGalleryFragment extends Fragment implements PhotoRequester.Res
 
       PhotoGalleryOnScrollListener mScrollListener = new PhotoGalleryOnScrollListener(mGridLayoutManager) {
         @Override
-        public void onLoadMore(int nPhotos, RecyclerView view) {
-          requestPhotos(nPhotos);
+        public void onLastVisibleItemChanged(int position, RecyclerView view) {
+          mPhotoPrefetcher.onViewportChanged(position);
         }
       };
 
         // asociate model with recycler view
 
-        mPhotoGalleryAdapter = new PhotoGalleryAdapter(mPhotos, mApp);
+        int thumbnailWidth = getResources().getDisplayMetrics().widthPixels / SPAN;
+        mPhotoGalleryAdapter = new PhotoGalleryAdapter(mPhotoManager, mApp, thumbnailWidth);
         mPhotoRecyclerView.setAdapter(mPhotoGalleryAdapter);
 
         mPhotoRecyclerView.addOnScrollListener(mScrollListener);
@@ -85,30 +107,34 @@ public class PhotoGalleryFragment extends Fragment implements PhotoRequester.Res
     public void onStart() {
         super.onStart();
 
-        // request first photo if empty
-        if (mPhotos.size() == 0) {
-            requestPhotos(SPAN);
-        }
+        // fill the screen and the pages ahead of it
+        mPhotoPrefetcher.onViewportChanged(mGridLayoutManager.findLastVisibleItemPosition());
     }
 
-    private void requestPhotos(int n) {
-        for (int i = 0; i < n; ++i) {
-            try {
-                mPhotoRequester.getPhoto();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    public void onStop() {
+        super.onStop();
+
+        // nothing is shown any more, drop the pages in flight
+        mPhotoPrefetcher.stop();
+        mApp.dumpMetrics();
     }
 
     @Override
-    public void receivedPhoto(final Photo photo) {
-        requireActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                mPhotos.add(photo);
-                mPhotoGalleryAdapter.notifyItemInserted(mPhotos.size());
+    public void receivedPhotos(final List<Photo> photos) {
+        // add straight from the response thread, each in its date slot, then show them on the next frame
+        mPhotoManager.addPhotos(photos);
+        mGalleryUpdates.requestFlush();
+    }
+
+    private void showPhotos() {
+        // everything added since the last frame, in one go
+        if (mPhotoGalleryAdapter != null) {
+            List<Photo> photos = mPhotoManager.getPhotos();
+            mPhotoGalleryAdapter.showPhotos(photos);
+            if (!photos.isEmpty()) {
+                mApp.reportFirstPaint();
             }
-        });
+        }
     }
 }
@@ -23,59 +23,34 @@ import androidx.recyclerview.widget.RecyclerView;
 /**
  * Listens for scrolling within photo gallery recycler view.
  *
- * This listener is derived from the Codepath cliffnote at
- * https://guides.codepath.com/android/Endless-Scrolling-with-AdapterViews-and-RecyclerView.
+ * Reports the last visible photo whenever it changes, so photos can be
+ * prefetched ahead of it.
  */
 public abstract class PhotoGalleryOnScrollListener extends RecyclerView.OnScrollListener {
-    private int visibleThreshold = 1;
-    private int previousTotalItemCount = 0;
-    private boolean loading = true;
+    private int mLastVisibleItemPosition = RecyclerView.NO_POSITION;
 
     GridLayoutManager mGridLayoutManager;
 
     public PhotoGalleryOnScrollListener(GridLayoutManager gridLayoutManager) {
         this.mGridLayoutManager = gridLayoutManager;
-        visibleThreshold = visibleThreshold * gridLayoutManager.getSpanCount();
     }
 
     @Override
     public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
-        int lastVisibleItemPosition = 0;
-        int totalItemCount = mGridLayoutManager.getItemCount();
+        int lastVisibleItemPosition = mGridLayoutManager.findLastVisibleItemPosition();
 
-        lastVisibleItemPosition = ((GridLayoutManager) mGridLayoutManager).findLastVisibleItemPosition();
-
-        // invalidated list?
-        if (totalItemCount < previousTotalItemCount) {
-            this.previousTotalItemCount = totalItemCount;
-            if (totalItemCount == 0) {
-                this.loading = true;
-            }
-        }
-
-        // still loading?
-        if (loading && (totalItemCount >= previousTotalItemCount + visibleThreshold)) {
-            loading = false;
-            previousTotalItemCount = totalItemCount;
+        // moved to another row?
+        if (lastVisibleItemPosition != mLastVisibleItemPosition) {
+            mLastVisibleItemPosition = lastVisibleItemPosition;
+            onLastVisibleItemChanged(lastVisibleItemPosition, view);
         }
-
-        // need to oad more?
-        if (!loading && (lastVisibleItemPosition + visibleThreshold) > totalItemCount) {
-            onLoadMore(visibleThreshold, view);
-            loading = true;
-        }
-    }
-
-    public void resetState() {
-        this.previousTotalItemCount = 0;
-        this.loading = true;
     }
 
     /**
-     * Loads more photos.
+     * Reports the last visible photo.
      *
-     * @param nPhotos # of photos to load.
-     * @param view    recycler view.
+     * @param position the position of the last visible photo, or -1 if none.
+     * @param view     recycler view.
      */
-    public abstract void onLoadMore(int nPhotos, RecyclerView view);
+    public abstract void onLastVisibleItemChanged(int position, RecyclerView view);
 }
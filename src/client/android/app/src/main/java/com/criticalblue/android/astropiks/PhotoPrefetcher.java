@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the gallery a number of pages ahead of the viewport.
+ *
+ * Page k holds the k-th window of days back from the first day. At most a
+ * fixed number of pages is requested at once; pages that complete out of
+ * order are held back so photos are always delivered in page order. Pages
+ * no longer needed, because the user scrolled back or the gallery stopped,
+ * are cancelled and requested again when needed.
+ */
+class PhotoPrefetcher {
+
+    /**
+     * A page requested and not yet completed.
+     */
+    private static final class PageRequest {
+        private PhotoRequester.PendingRequest mPending;
+
+        void cancel() {
+            if (mPending != null) {
+                mPending.cancel();
+            }
+        }
+    }
+
+    private final PhotoSource mPhotoSource;
+    private final PhotoRequester.ResponseListener mResponseListener;
+    private final int mFirstDay;
+    private final int mPageSize;
+    private final int mPagesAhead;
+    private final int mMaxInFlight;
+
+    private final Map<Integer, PageRequest> mInFlight = new HashMap<>();
+    private final Map<Integer, List<Photo>> mCompleted = new HashMap<>();
+    private int mNextDelivery = 0;
+    private int mDelivered = 0;
+    private int mLastVisiblePosition = -1;
+    private boolean mStopped = true;
+
+    /**
+     * Creates a prefetcher.
+     *
+     * @param photoSource the source of the pages, e.g. the photo requester.
+     * @param pageSize    # of days in a page.
+     * @param pagesAhead  # of pages to keep loaded past the last visible photo.
+     * @param maxInFlight maximum # of pages requested at once.
+     * @param listener    the listener receiving the photos, in page order.
+     */
+    PhotoPrefetcher(PhotoSource photoSource, int pageSize, int pagesAhead, int maxInFlight,
+                    PhotoRequester.ResponseListener listener) {
+        mPhotoSource = photoSource;
+        mResponseListener = listener;
+        mFirstDay = photoSource.getFirstDay();
+        mPageSize = pageSize;
+        mPagesAhead = pagesAhead;
+        mMaxInFlight = maxInFlight;
+    }
+
+    /**
+     * Updates the viewport, requesting or cancelling pages as needed.
+     *
+     * @param lastVisiblePosition the position of the last visible photo, or -1 if none.
+     */
+    synchronized void onViewportChanged(int lastVisiblePosition) {
+        mStopped = false;
+        mLastVisiblePosition = lastVisiblePosition;
+        update();
+    }
+
+    /**
+     * Cancels every page in flight, e.g. when the gallery stops.
+     *
+     * The pages are requested again on the next viewport change.
+     */
+    synchronized void stop() {
+        mStopped = true;
+        for (PageRequest pageRequest : mInFlight.values()) {
+            pageRequest.cancel();
+        }
+        mInFlight.clear();
+    }
+
+    /**
+     * Returns the # of pages requested and not yet completed.
+     *
+     * @return the # of pages in flight.
+     */
+    synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    private void update() {
+        if (mStopped) {
+            return;
+        }
+
+        // the last page wanted, from what is already delivered and what is still short
+        int wanted = mLastVisiblePosition + 1 + mPagesAhead * mPageSize;
+        int shortfall = Math.max(0, wanted - mDelivered);
+        int lastPage = mNextDelivery - 1 + (shortfall + mPageSize - 1) / mPageSize;
+
+        // cancel pages past it, e.g. after scrolling back
+        Iterator<Map.Entry<Integer, PageRequest>> inFlight = mInFlight.entrySet().iterator();
+        while (inFlight.hasNext()) {
+            Map.Entry<Integer, PageRequest> entry = inFlight.next();
+            if (entry.getKey() > lastPage) {
+                entry.getValue().cancel();
+                inFlight.remove();
+            }
+        }
+
+        // and request the missing ones, nearest first
+        for (int page = mNextDelivery; page <= lastPage && mInFlight.size() < mMaxInFlight; ++page) {
+            if (!mInFlight.containsKey(page) && !mCompleted.containsKey(page)) {
+                request(page);
+            }
+        }
+    }
+
+    private void request(final int page) {
+        final PageRequest pageRequest = new PageRequest();
+        int newestDay = mFirstDay - page * mPageSize;
+
+        mInFlight.put(page, pageRequest);
+        pageRequest.mPending = mPhotoSource.getPhotos(newestDay, mPageSize, new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                completed(page, pageRequest, photos);
+            }
+        });
+    }
+
+    private synchronized void completed(int page, PageRequest pageRequest, List<Photo> photos) {
+        if (mInFlight.get(page) != pageRequest) {
+            // cancelled meanwhile
+            return;
+        }
+        mInFlight.remove(page);
+
+        mCompleted.put(page, photos);
+
+        // deliver every page now in order
+        List<Photo> next;
+        while ((next = mCompleted.remove(mNextDelivery)) != null) {
+            mNextDelivery++;
+            mDelivered += next.size();
+            mResponseListener.receivedPhotos(next);
+        }
+
+        update();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criticalblue.android.astropiks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves windows of photos from the photo store first, then syncs them
+ * with the network in the background.
+ *
+ * The stored days of a window are shown as soon as they are read, so the
+ * gallery fills at local disk speed. A window missing days is completed by
+ * a sync, which requests only the missing days. When a sync fails, e.g.
+ * while offline, the window waits and is synced again a little later
+ * instead of showing failure placeholders; any successful sync also
+ * resumes the others at once. Failures a retry cannot fix, e.g. a refused
+ * API key, are delivered as their placeholder.
+ */
+class PhotoRepository implements PhotoSource {
+
+    /**
+     * A window still missing days.
+     */
+    private static final class Window {
+        private final int mNewestDay;
+        private final int mSize;
+        private final PhotoRequester.PendingRequest mPending;
+        private final PhotoRequester.ResponseListener mListener;
+        private PhotoRequester.PendingRequest mRequest;
+
+        Window(int newestDay, int size, PhotoRequester.PendingRequest pending,
+               PhotoRequester.ResponseListener listener) {
+            mNewestDay = newestDay;
+            mSize = size;
+            mPending = pending;
+            mListener = listener;
+        }
+    }
+
+    private final PhotoRequester mPhotoRequester;
+    private final PhotoStore mPhotoStore;
+    private final ScheduledExecutorService mExecutor;
+    private final long mSyncIntervalMillis;
+    private final PhotoRequester.ResponseListener mStoredListener;
+
+    private final Set<Window> mUnsynced = new LinkedHashSet<>();
+    private boolean mSyncScheduled;
+
+    /**
+     * Creates a repository.
+     *
+     * @param photoRequester     the requester, to sync from the network.
+     * @param photoStore         the photo store.
+     * @param executor           the executor reading the store and running the syncs.
+     * @param syncIntervalMillis the delay before syncing again after a failed sync.
+     * @param storedListener     the listener receiving the stored photos of a window
+     *                           ahead of the window itself.
+     */
+    PhotoRepository(PhotoRequester photoRequester, PhotoStore photoStore, ScheduledExecutorService executor,
+                    long syncIntervalMillis, PhotoRequester.ResponseListener storedListener) {
+        mPhotoRequester = photoRequester;
+        mPhotoStore = photoStore;
+        mExecutor = executor;
+        mSyncIntervalMillis = syncIntervalMillis;
+        mStoredListener = storedListener;
+    }
+
+    @Override
+    public int getFirstDay() {
+        return mPhotoRequester.getFirstDay();
+    }
+
+    /**
+     * Requests a window of photos, from the store first.
+     *
+     * A window with every day stored is delivered at once. Otherwise its
+     * stored photos go to the stored listener right away, and the whole
+     * window is delivered to the given listener once synced.
+     *
+     * @param newestDay the epoch day ending the window.
+     * @param n         # of days in the window.
+     * @param listener  the listener receiving the photos.
+     * @return the pending request, to cancel it.
+     */
+    @Override
+    public PhotoRequester.PendingRequest getPhotos(int newestDay, int n, PhotoRequester.ResponseListener listener) {
+        final Window window = new Window(newestDay, n, new PhotoRequester.PendingRequest(), listener);
+        window.mPending.attach(() -> cancel(window));
+        mExecutor.execute(() -> load(window));
+        return window.mPending;
+    }
+
+    /**
+     * Returns the # of windows waiting for a sync.
+     *
+     * @return the # of windows.
+     */
+    synchronized int getUnsyncedCount() {
+        return mUnsynced.size();
+    }
+
+    private void load(Window window) {
+        if (window.mPending.isCancelled()) {
+            return;
+        }
+
+        List<Photo> stored = new ArrayList<>(window.mSize);
+        boolean missing = false;
+
+        for (int i = 0; i < window.mSize; ++i) {
+            String date = Photo.dayOf(window.mNewestDay - i);
+            if (mPhotoStore.contains(date)) {
+                Photo photo = mPhotoStore.get(date);
+                if (photo != null) {
+                    stored.add(photo);
+                }
+            } else {
+                missing = true;
+            }
+        }
+
+        if (!missing) {
+            window.mListener.receivedPhotos(stored);
+            return;
+        }
+
+        if (!stored.isEmpty()) {
+            // show what we have while the rest syncs
+            mStoredListener.receivedPhotos(stored);
+        }
+
+        synchronized (this) {
+            if (window.mPending.isCancelled()) {
+                return;
+            }
+            mUnsynced.add(window);
+        }
+        sync();
+    }
+
+    private void cancel(Window window) {
+        PhotoRequester.PendingRequest request;
+        synchronized (this) {
+            mUnsynced.remove(window);
+            request = window.mRequest;
+        }
+
+        if (request != null) {
+            request.cancel();
+        }
+    }
+
+    private synchronized void sync() {
+        for (Window window : new ArrayList<>(mUnsynced)) {
+            if (window.mRequest == null) {
+                sync(window);
+            }
+        }
+    }
+
+    private void sync(final Window window) {
+        // the requester only asks the network for the days not in the store
+        window.mRequest = mPhotoRequester.getPhotos(window.mNewestDay, window.mSize,
+                new PhotoRequester.ResponseListener() {
+                    @Override
+                    public void receivedPhotos(List<Photo> photos) {
+                        synced(window, photos);
+                    }
+                });
+    }
+
+    private void synced(Window window, List<Photo> photos) {
+        if (PhotoRequester.isTransientFailure(photos)) {
+            synchronized (this) {
+                window.mRequest = null;
+                scheduleSync();
+            }
+            return;
+        }
+
+        synchronized (this) {
+            if (!mUnsynced.remove(window)) {
+                // cancelled meanwhile
+                return;
+            }
+        }
+        window.mListener.receivedPhotos(photos);
+
+        // the network is back, no need to wait for the others
+        mExecutor.execute(this::sync);
+    }
+
+    private void scheduleSync() {
+        if (mSyncScheduled) {
+            return;
+        }
+
+        mSyncScheduled = true;
+        mExecutor.schedule(() -> {
+            synchronized (PhotoRepository.this) {
+                mSyncScheduled = false;
+            }
+            sync();
+        }, mSyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+}
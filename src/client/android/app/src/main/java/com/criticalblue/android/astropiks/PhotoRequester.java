@@ -16,186 +16,465 @@
 
 package com.criticalblue.android.astropiks;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
-import org.json.JSONException;
-import org.json.JSONObject;
+import com.squareup.moshi.JsonDataException;
+import com.squareup.moshi.JsonEncodingException;
 
 import java.io.IOException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
+import java.net.ProtocolException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 
 import okhttp3.Call;
 import okhttp3.Callback;
-import okhttp3.OkHttpClient;
+import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Requests photo information.
  */
-class PhotoRequester {
+class PhotoRequester implements PhotoSource {
+
+    /**
+     * Prefers the compact APOD encoding of the proxy, which other servers
+     * answer with JSON.
+     */
+    static final String ACCEPT = ApodCborReader.MEDIA_TYPE + ", application/json;q=0.9";
 
     private final String mRequestURL;
-    private final App mApp;
+    private final Call.Factory mCallFactory;
 
     public interface ResponseListener {
-        void receivedPhoto(Photo photo);
+        /**
+         * Receives a batch of photos, newest first.
+         *
+         * @param photos the photos.
+         */
+        void receivedPhotos(List<Photo> photos);
     }
 
-    private final Calendar mCalendar;
-    private final SimpleDateFormat mDateFormat;
-    private final ResponseListener mResponseListener;
-    private final Context mContext;
+    /**
+     * A pending request for a window of photos.
+     */
+    public static final class PendingRequest {
+        private volatile boolean mCancelled;
+        private Runnable mCanceller;
+
+        /**
+         * Cancels the request; its listener is not called afterwards.
+         */
+        public synchronized void cancel() {
+            mCancelled = true;
+            if (mCanceller != null) {
+                mCanceller.run();
+            }
+        }
+
+        /**
+         * Tells whether the request was cancelled.
+         *
+         * @return true if cancelled.
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        private boolean attach(Call call) {
+            return attach(call::cancel);
+        }
+
+        /**
+         * Sets what to run when the request is cancelled.
+         *
+         * @param canceller the work cancelling the request.
+         * @return false if the request is already cancelled.
+         */
+        synchronized boolean attach(Runnable canceller) {
+            mCanceller = canceller;
+            return !mCancelled;
+        }
+    }
+
+    private final int mFirstDay;
+    private final String mToday;
+    private final PhotoStore mPhotoStore;
+    private final Executor mDiskExecutor;
+    private final RetryPolicy mRetryPolicy;
+    private static final SampledLog sRequestLog = new SampledLog(1, 250);
     private static final String BASE_PATH = "/planetary/apod?";
-    private static final String DATE_PARAMETER = "&date=";
-    private static final String DATE_FORMAT = "yyyy-MM-dd";
+    private static final String START_DATE_PARAMETER = "&start_date=";
+    private static final String END_DATE_PARAMETER = "&end_date=";
     private static final String API_KEY_PARAMETER = "api_key=";
-    private static final String MEDIA_TYPE_KEY = "media_type";
-    private static final String MEDIA_TYPE_VIDEO_VALUE = "video";
+    private static final String NETWORK_FAILURE = "Network Failure";
+    private static final String SERVICE_UNAVAILABLE = "Service Unavailable";
+
+    public PhotoRequester(Context context, App app) {
+        this(buildRequestURL(context), request -> app.getHttpClient().newCall(request),
+          app.getPhotoStore(), app.getDiskExecutor(), app.getRetryPolicy());
+    }
+
+    PhotoRequester(String requestURL, Call.Factory callFactory) {
+        this(requestURL, callFactory, null, Runnable::run);
+    }
+
+    PhotoRequester(String requestURL, Call.Factory callFactory, PhotoStore photoStore, Executor diskExecutor) {
+        this(requestURL, callFactory, photoStore, diskExecutor, null);
+    }
 
-    public PhotoRequester(Context context, App app, ResponseListener listener) {
-        mContext = context;
-        mResponseListener = listener;
-        mCalendar = Calendar.getInstance();
-        mDateFormat = new SimpleDateFormat(DATE_FORMAT);
-        mApp = app;
-        mRequestURL = buildRequestURL();
+    PhotoRequester(String requestURL, Call.Factory callFactory, PhotoStore photoStore, Executor diskExecutor,
+                   RetryPolicy retryPolicy) {
+        mFirstDay = (int) LocalDate.now().toEpochDay();
+        mToday = Photo.dayOf(mFirstDay);
+        mCallFactory = callFactory;
+        mRequestURL = requestURL;
+        mPhotoStore = photoStore;
+        mDiskExecutor = diskExecutor;
+        mRetryPolicy = retryPolicy;
     }
 
-    public String buildRequestURL() {
+    public static String buildRequestURL(Context context) {
       // build and the request URL with api_key and date parameters
-      String urlRequest = mContext.getString(R.string.api_url) + BASE_PATH;
-      urlRequest += API_KEY_PARAMETER + mContext.getString(R.string.api_key);
+      String urlRequest = context.getString(R.string.api_url) + BASE_PATH;
+      urlRequest += API_KEY_PARAMETER + context.getString(R.string.api_key);
       return urlRequest;
     }
 
     /**
-     * Requests a photo.
+     * Requests a window of photos with at most a single request.
      *
-     * @throws IOException if all else fails.
+     * Days already in the photo store are served from it and only the span
+     * of days missing from it is requested. The photos are delivered newest
+     * first through {@link ResponseListener#receivedPhotos(List)}, skipping
+     * any video days. A failed request delivers a single placeholder photo
+     * telling why.
+     *
+     * @param newestDay the epoch day ending the window.
+     * @param n         # of days in the window.
+     * @param listener  the listener receiving the photos.
+     * @return the pending request, to cancel it.
      */
-    public void getPhoto() throws IOException {
-      // grab the current calendar date and back up one day for next request
-      final String date = mDateFormat.format(mCalendar.getTime());
-      mCalendar.add(Calendar.DAY_OF_YEAR, -1);
+    @Override
+    public PendingRequest getPhotos(int newestDay, int n, final ResponseListener listener) {
+      final List<String> dates = new ArrayList<>(n);
+      for (int i = 0; i < n; ++i) {
+        dates.add(Photo.dayOf(newestDay - i));
+      }
 
-      String photoURL = mRequestURL + DATE_PARAMETER + date;
+      final PendingRequest pending = new PendingRequest();
+      final RetryPolicy.Budget budget = newBudget();
+      mDiskExecutor.execute(() -> loadWindow(dates, pending, listener, budget));
+      return pending;
+    }
 
-      Log.i("ASTROPIKS_APP", "PHOTO DATA URL: " + photoURL);
+    /**
+     * Returns the epoch day the requests started from, today.
+     *
+     * @return the epoch day.
+     */
+    @Override
+    public int getFirstDay() {
+      return mFirstDay;
+    }
 
-      final Request request = new Request.Builder().url(photoURL).build();
+    private void loadWindow(List<String> dates, PendingRequest pending, ResponseListener listener,
+                            RetryPolicy.Budget budget) {
+      if (pending.isCancelled()) {
+        return;
+      }
 
-      makeRequest(request);
+      // look up the stored days, newest first, and find the span still missing
+      Photo[] stored = new Photo[dates.size()];
+      int newest = -1;
+      int oldest = -1;
+
+      for (int i = 0; i < dates.size(); ++i) {
+        String date = dates.get(i);
+        if (mPhotoStore != null && mPhotoStore.contains(date)) {
+          stored[i] = mPhotoStore.get(date);
+        } else {
+          if (newest < 0) {
+            newest = i;
+          }
+          oldest = i;
+        }
+      }
+
+      if (newest < 0) {
+        // every day is stored, no need to go to the network
+        listener.receivedPhotos(mergeWindow(dates, stored, Collections.emptyMap()));
+        return;
+      }
+
+      if (!allowRequest()) {
+        listener.receivedPhotos(Collections.singletonList(buildUnavailablePhoto()));
+        return;
+      }
+
+      String photosURL = mRequestURL + START_DATE_PARAMETER + dates.get(oldest) + END_DATE_PARAMETER + dates.get(newest);
+
+      if (sRequestLog.isLoggable()) {
+        sRequestLog.log("PHOTOS DATA URL: " + SampledLog.redact(photosURL));
+      }
+
+      final Request request = new Request.Builder().url(photosURL).header("Accept", ACCEPT).build();
+
+      makeRangeRequest(request, dates, stored, pending, listener, budget);
     }
 
-    private void makeRequest(Request request) {
-        OkHttpClient httpClient = mApp.getHttpClient();
+    private List<Photo> mergeWindow(List<String> dates, Photo[] stored, Map<String, Photo> fetched) {
+      List<Photo> photos = new ArrayList<>(dates.size());
+
+      for (int i = 0; i < dates.size(); ++i) {
+        String date = dates.get(i);
+        Photo photo = stored[i];
 
-        httpClient.newCall(request).enqueue(new Callback() {
+        if (photo == null && fetched.containsKey(date)) {
+          photo = fetched.get(date);
+        } else if (photo == null && mPhotoStore != null && !mPhotoStore.contains(date) && date.compareTo(mToday) < 0) {
+          // not stored nor returned, so a video day; past days never change
+          mPhotoStore.put(date, null);
+        }
+
+        if (photo != null) {
+          photos.add(photo);
+        }
+      }
+
+      return photos;
+    }
+
+    private RetryPolicy.Budget newBudget() {
+        return mRetryPolicy != null ? mRetryPolicy.newBudget() : null;
+    }
+
+    private boolean allowRequest() {
+        return mRetryPolicy == null || mRetryPolicy.allowRequest();
+    }
+
+    private void recordSuccess() {
+        if (mRetryPolicy != null) {
+            mRetryPolicy.recordSuccess();
+        }
+    }
+
+    /**
+     * Records a failed request and schedules it to run again, if the retry
+     * policy allows it.
+     *
+     * @param budget  the retry budget of the page.
+     * @param request the request to run again.
+     * @return true if the request will run again.
+     */
+    private boolean retryLater(RetryPolicy.Budget budget, Runnable request) {
+        if (mRetryPolicy == null) {
+            return false;
+        }
+
+        mRetryPolicy.recordFailure();
+        return mRetryPolicy.retry(budget, request);
+    }
+
+    private void makeRangeRequest(Request request, final List<String> dates, final Photo[] stored,
+                                  final PendingRequest pending, final ResponseListener listener,
+                                  final RetryPolicy.Budget budget) {
+        Call rangeCall = mCallFactory.newCall(request);
+        if (!pending.attach(rangeCall)) {
+            return;
+        }
+
+        rangeCall.enqueue(new Callback() {
             @Override
             public void onFailure(@NonNull Call call, @NonNull IOException e) {
+                if (pending.isCancelled()) {
+                    return;
+                }
+
                 // network failure
                 Log.e("ASTROPIKS_APP", e.toString());
 
-                mResponseListener.receivedPhoto(buildPhoto(
+                if (retryLater(budget, () -> retryWindow(dates, pending, listener, budget))) {
+                    return;
+                }
+
+                listener.receivedPhotos(Collections.singletonList(buildPhoto(
                   null,
-                  "Network Failure",
+                  NETWORK_FAILURE,
                   "Unable to complete network request.",
                   null
-                ));
+                )));
             }
 
             @Override
             public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
+                if (pending.isCancelled()) {
+                    response.close();
+                    return;
+                }
 
                 // network response
-                if (response.code() == 500) {
-                    // skip this photo and try again
-                    getPhoto();
-                } else if (response.code() != 200) {
+                if (response.code() >= 500) {
+                    // try this window again later
+                    Log.e("ASTROPIKS_APP", "Failed to get the photos. Response code: " + response.code());
+                    response.close();
+
+                    if (!retryLater(budget, () -> retryWindow(dates, pending, listener, budget))) {
+                        listener.receivedPhotos(Collections.singletonList(buildUnavailablePhoto()));
+                    }
+                    return;
+                }
+
+                recordSuccess();
+
+                if (response.code() != 200) {
                     // unsuccessful response;
-                    Log.e("ASTROPIKS_APP", "Failed to get the photo. Response code: " + response.code());
+                    Log.e("ASTROPIKS_APP", "Failed to get the photos. Response code: " + response.code());
+                    response.close();
 
-                    mResponseListener.receivedPhoto(buildPhoto(
+                    listener.receivedPhotos(Collections.singletonList(buildPhoto(
                       null,
                       "Unauthorized",
                       "You are not authorized to access this information.",
                       null
-                    ));
-                   return;
+                    )));
+                    return;
                 }
 
+                List<Photo> photos;
                 try {
-                    JSONObject photoJSON = new JSONObject(Objects.requireNonNull(response.body()).string());
-
-                    if (photoJSON.has("error")) {
-                        // bad photo data, likely a rate limit error
-                        String title = photoJSON.getJSONObject("error").getString("code");
-                        String desc = photoJSON.getJSONObject("error").getString("message");
-
-                        Log.e("ASTROPIKS_APP", "error: " + desc);
-
-                        mResponseListener.receivedPhoto(buildPhoto(
-                          null,
-                          title,
-                          desc,
-                          null
-                        ));
-
-                    } else if (!photoJSON.getString(MEDIA_TYPE_KEY).equals(MEDIA_TYPE_VIDEO_VALUE)) {
-                        // is an image, grab it
-                        String url = null;
-                        String title = null;
-                        String desc = null;
-                        String date = null;
-
-                        try {
-                            url = photoJSON.getString("url");
-                            title = photoJSON.getString("title");
-                            desc = photoJSON.getString("explanation");
-                            date = photoJSON.getString("date");
-                        } catch (JSONException e) {
-                            e.printStackTrace();
-                        }
-
-                        Date day = parseDate(date);
-
-                        mResponseListener.receivedPhoto(buildPhoto(url, title, desc, day));
-                    } else {
-                        // probably a video, try again
-                        getPhoto();
+                    photos = readPhotos(response);
+                } catch (IOException | JsonDataException e) {
+                    listener.receivedPhotos(Collections.singletonList(buildErrorPhoto(e)));
+                    return;
+                }
+
+                // keep the past days, they never change
+                Map<String, Photo> fetched = new HashMap<>(photos.size() * 2);
+                for (Photo photo : photos) {
+                    if (photo.isPlaceholder()) {
+                        continue;
+                    }
+
+                    String date = Photo.dayOf(photo.getId());
+                    fetched.put(date, photo);
+                    if (mPhotoStore != null && date.compareTo(mToday) < 0) {
+                        mPhotoStore.put(date, photo);
                     }
-                } catch (JSONException e) {
-                     Log.e("ASTROPIKS_APP", e.toString());
-
-                     // response body not expected JSON
-                     mResponseListener.receivedPhoto(buildPhoto(
-                       null,
-                       "Invalid Photo",
-                       "Unexpected error when requesting photo.",
-                       null
-                     ));
+                }
+
+                if (!pending.isCancelled()) {
+                    listener.receivedPhotos(mergeWindow(dates, stored, fetched));
                 }
             }
         });
     }
 
-    private Date parseDate(String date) {
-      @SuppressLint("SimpleDateFormat") SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
-      try {
-        return dateFormat.parse(date);
-      } catch (ParseException e) {
-        e.printStackTrace();
-      }
-      return null;
+    private void retryWindow(List<String> dates, PendingRequest pending, ResponseListener listener,
+                             RetryPolicy.Budget budget) {
+        mDiskExecutor.execute(() -> loadWindow(dates, pending, listener, budget));
+    }
+
+    /**
+     * Reads the photos from a successful response.
+     *
+     * @param response the response.
+     * @return the photos, without any video days.
+     * @throws IOException if the body is an APOD error or not the expected
+     * JSON or compact encoding.
+     */
+    private List<Photo> readPhotos(Response response) throws IOException {
+        List<Photo> photos = new ArrayList<>();
+        long start = System.nanoTime();
+        ResponseBody body = Objects.requireNonNull(response.body());
+        MediaType type = body.contentType();
+        boolean compact = type != null && "cbor".equals(type.subtype());
+
+        try {
+            if (compact) {
+                ApodCborReader.readPhotos(body.source(), photos);
+            } else {
+                ApodJsonReader.readPhotos(body.source(), photos);
+            }
+            return photos;
+        } finally {
+            body.close();
+            // the body is parsed as it streams in, so this includes reading it
+            Metrics.get().recordSince(compact ? Metrics.Timer.CBOR_PARSE : Metrics.Timer.JSON_PARSE, start);
+        }
+    }
+
+    /**
+     * Tells whether photos are the placeholder of a failure worth retrying.
+     *
+     * Network failures and an unavailable service may go away; a refused
+     * request or an unexpected answer will not.
+     *
+     * @param photos the photos delivered for a request.
+     * @return true if the request failed and may succeed later.
+     */
+    static boolean isTransientFailure(List<Photo> photos) {
+        if (photos.size() != 1 || !photos.get(0).isPlaceholder()) {
+            return false;
+        }
+
+        String title = photos.get(0).getTitle();
+        return NETWORK_FAILURE.equals(title) || SERVICE_UNAVAILABLE.equals(title);
+    }
+
+    private Photo buildErrorPhoto(Exception e) {
+        if (e instanceof ApodJsonReader.ApodErrorException) {
+            // bad photo data, likely a rate limit error
+            Log.e("ASTROPIKS_APP", "error: " + e.getMessage());
+
+            return buildPhoto(
+              null,
+              ((ApodJsonReader.ApodErrorException) e).getCode(),
+              e.getMessage(),
+              null
+            );
+        }
+
+        Log.e("ASTROPIKS_APP", e.toString());
+
+        if (!(e instanceof JsonDataException || e instanceof JsonEncodingException
+                || e instanceof ProtocolException)) {
+            // the connection failed while the body was read
+            return buildPhoto(
+              null,
+              NETWORK_FAILURE,
+              "Unable to complete network request.",
+              null
+            );
+        }
+
+        // response body not expected JSON
+        return buildPhoto(
+          null,
+          "Invalid Photo",
+          "Unexpected error when requesting photo.",
+          null
+        );
+    }
+
+    private Photo buildUnavailablePhoto() {
+        return buildPhoto(
+          null,
+          SERVICE_UNAVAILABLE,
+          "Photos are not available right now, try again later.",
+          null
+        );
     }
 
     private Photo buildPhoto(String url, String title, String desc, Date day) {
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criticalblue.android.astropiks;
+
+/**
+ * Provides windows of photos, going back day by day from a first day.
+ */
+interface PhotoSource {
+
+    /**
+     * Returns the epoch day the windows go back from, today.
+     *
+     * @return the epoch day.
+     */
+    int getFirstDay();
+
+    /**
+     * Requests a window of photos.
+     *
+     * The photos are delivered newest first, in one batch, through
+     * {@link PhotoRequester.ResponseListener#receivedPhotos(java.util.List)}.
+     *
+     * @param newestDay the epoch day ending the window.
+     * @param n         # of days in the window.
+     * @param listener  the listener receiving the photos.
+     * @return the pending request, to cancel it.
+     */
+    PhotoRequester.PendingRequest getPhotos(int newestDay, int n, PhotoRequester.ResponseListener listener);
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persists photo information on disk, keyed by APOD date.
+ *
+ * Entries are appended to a single file. Only the date keys and their file
+ * offsets are read when the store is first used; each entry itself is read
+ * on demand, as the gallery scrolls to it. Video days are stored as empty
+ * entries so they are not requested again.
+ */
+class PhotoStore {
+
+    private static final int MAGIC = 0x41504f44; // "APOD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private final File mFile;
+    private final Map<String, Long> mOffsets = new HashMap<>();
+    private RandomAccessFile mData;
+
+    /**
+     * Creates a store; the file is not touched until first used.
+     *
+     * @param file the store file.
+     */
+    PhotoStore(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Checks whether a day is in the store.
+     *
+     * @param date the day, as yyyy-MM-dd.
+     * @return true if stored, even as a video day.
+     */
+    synchronized boolean contains(String date) {
+        return open() && mOffsets.containsKey(date);
+    }
+
+    /**
+     * Returns the stored photo for a day.
+     *
+     * @param date the day, as yyyy-MM-dd.
+     * @return the photo, or null if not stored or a video day.
+     */
+    synchronized Photo get(String date) {
+        if (!open()) {
+            return null;
+        }
+
+        Long offset = mOffsets.get(date);
+        if (offset == null) {
+            return null;
+        }
+
+        try {
+            mData.seek(offset);
+            byte[] entry = new byte[mData.readInt()];
+            mData.readFully(entry);
+            return readEntry(new DataInputStream(new ByteArrayInputStream(entry)));
+        } catch (IOException e) {
+            Log.e("ASTROPIKS_APP", "Failed to read stored photo: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the photo for a day, unless already stored.
+     *
+     * @param date  the day, as yyyy-MM-dd.
+     * @param photo the photo, or null for a video day.
+     */
+    synchronized void put(String date, Photo photo) {
+        if (!open() || mOffsets.containsKey(date)) {
+            return;
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream entry = new DataOutputStream(bytes);
+            entry.writeUTF(date);
+            entry.writeBoolean(photo != null);
+            if (photo != null) {
+                writeString(entry, photo.getTitle());
+                writeString(entry, photo.getDesc());
+                writeString(entry, photo.getUrl());
+            }
+
+            long offset = mData.length();
+            mData.seek(offset);
+            mData.writeInt(bytes.size());
+            mData.write(bytes.toByteArray());
+            mOffsets.put(date, offset);
+        } catch (IOException e) {
+            Log.e("ASTROPIKS_APP", "Failed to store photo: " + e);
+        }
+    }
+
+    /**
+     * Closes the store file; it is reopened on next use.
+     */
+    synchronized void close() {
+        if (mData != null) {
+            try {
+                mData.close();
+            } catch (IOException e) {
+                Log.e("ASTROPIKS_APP", e.toString());
+            }
+            mData = null;
+            mOffsets.clear();
+        }
+    }
+
+    private boolean open() {
+        if (mData != null) {
+            return true;
+        }
+
+        try {
+            mData = new RandomAccessFile(mFile, "rw");
+            if (mData.length() < HEADER_SIZE || mData.readInt() != MAGIC || mData.readInt() != VERSION) {
+                // new or unreadable store, start over
+                mData.setLength(0);
+                mData.writeInt(MAGIC);
+                mData.writeInt(VERSION);
+            }
+            loadOffsets();
+            return true;
+        } catch (IOException e) {
+            Log.e("ASTROPIKS_APP", "Failed to open photo store: " + e);
+            close();
+            return false;
+        }
+    }
+
+    private void loadOffsets() throws IOException {
+        long length = mData.length();
+        long offset = HEADER_SIZE;
+
+        try {
+            while (offset < length) {
+                mData.seek(offset);
+                int size = mData.readInt();
+                String date = mData.readUTF();
+                if (offset + 4 + size > length) {
+                    throw new EOFException();
+                }
+                mOffsets.put(date, offset);
+                offset += 4 + size;
+            }
+        } catch (EOFException e) {
+            // drop an entry left half written
+            mData.setLength(offset);
+        }
+    }
+
+    private static Photo readEntry(DataInput entry) throws IOException {
+        String date = entry.readUTF();
+        if (!entry.readBoolean()) {
+            return null;
+        }
+
+        Photo photo = new Photo(Photo.dayId(date));
+        photo.setTitle(readString(entry));
+        photo.setDesc(readString(entry));
+        photo.setUrl(readString(entry));
+        photo.setDate(ApodJsonReader.parseDate(date));
+        return photo;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
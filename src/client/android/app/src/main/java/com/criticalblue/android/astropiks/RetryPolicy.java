@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.util.Log;
+
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when failed photo requests are tried again.
+ *
+ * Retries are delayed with exponential backoff and full jitter, so clients
+ * hit by the same outage do not come back in step. Each page gets a small
+ * retry budget of its own. Across pages, a circuit breaker opens after a run
+ * of failures; while open, requests fail straight away, and once the open
+ * period is over a single trial request is let through to probe the proxy.
+ */
+class RetryPolicy {
+
+    /**
+     * The retries left for one page.
+     */
+    static final class Budget {
+        private final int mMaxRetries;
+        private int mRetries;
+
+        private Budget(int maxRetries) {
+            mMaxRetries = maxRetries;
+        }
+
+        /**
+         * Takes one retry from the budget.
+         *
+         * @return the retry taken, from 0 for the first, or -1 if none left.
+         */
+        private synchronized int take() {
+            return mRetries < mMaxRetries ? mRetries++ : -1;
+        }
+    }
+
+    private final ScheduledExecutorService mScheduler;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mRetriesPerPage;
+    private final int mFailuresToOpen;
+    private final long mOpenNanos;
+    private final Random mRandom = new Random();
+
+    private int mFailures;
+    private long mOpenUntil;
+    private boolean mOpen;
+
+    /**
+     * Creates a retry policy.
+     *
+     * @param scheduler       the executor running the delayed retries.
+     * @param baseDelayMillis the delay before the first retry, before jitter.
+     * @param maxDelayMillis  the maximum delay before any retry.
+     * @param retriesPerPage  the maximum # of retries for one page.
+     * @param failuresToOpen  the # of failures in a row opening the circuit.
+     * @param openMillis      how long the circuit stays open before a trial request.
+     */
+    RetryPolicy(ScheduledExecutorService scheduler, long baseDelayMillis, long maxDelayMillis,
+                int retriesPerPage, int failuresToOpen, long openMillis) {
+        mScheduler = scheduler;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRetriesPerPage = retriesPerPage;
+        mFailuresToOpen = failuresToOpen;
+        mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Returns a new retry budget for a page.
+     *
+     * @return the budget.
+     */
+    Budget newBudget() {
+        return new Budget(mRetriesPerPage);
+    }
+
+    /**
+     * Tells whether a request may go out now.
+     *
+     * While the circuit is open, only one trial request is let through per
+     * open period.
+     *
+     * @return true if the request may go out.
+     */
+    synchronized boolean allowRequest() {
+        if (!mOpen) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        if (now - mOpenUntil < 0) {
+            return false;
+        }
+
+        // let one trial through, the next one waits for another period
+        mOpenUntil = now + mOpenNanos;
+        return true;
+    }
+
+    /**
+     * Records a request that reached the proxy, closing the circuit.
+     */
+    synchronized void recordSuccess() {
+        if (mOpen) {
+            Log.i("ASTROPIKS_APP", "Photo requests resumed");
+        }
+        mFailures = 0;
+        mOpen = false;
+    }
+
+    /**
+     * Records a failed request, opening the circuit after too many in a row.
+     */
+    synchronized void recordFailure() {
+        mFailures++;
+        if (mOpen || mFailures >= mFailuresToOpen) {
+            if (!mOpen) {
+                Log.w("ASTROPIKS_APP", "Photo requests paused after " + mFailures + " failures");
+            }
+            mOpen = true;
+            mOpenUntil = System.nanoTime() + mOpenNanos;
+        }
+    }
+
+    /**
+     * Tells whether the circuit is open.
+     *
+     * @return true if requests are currently failing fast.
+     */
+    synchronized boolean isOpen() {
+        return mOpen;
+    }
+
+    /**
+     * Schedules a failed request to run again, if still worth it.
+     *
+     * @param budget  the budget of the page the request is for.
+     * @param request the request to run again.
+     * @return true if scheduled, false if the budget is spent or the circuit is open.
+     */
+    boolean retry(Budget budget, Runnable request) {
+        if (isOpen()) {
+            return false;
+        }
+
+        int retry = budget.take();
+        if (retry < 0) {
+            return false;
+        }
+
+        try {
+            mScheduler.schedule(request, backoffMillis(retry), TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.e("ASTROPIKS_APP", e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * Returns the delay before a retry: a random time up to an exponentially
+     * growing ceiling.
+     *
+     * @param retry the retry, from 0 for the first.
+     * @return the delay in milliseconds.
+     */
+    long backoffMillis(int retry) {
+        long ceiling = mMaxDelayMillis;
+        if (retry < Long.SIZE - 1 && mBaseDelayMillis <= mMaxDelayMillis >> retry) {
+            ceiling = mBaseDelayMillis << retry;
+        }
+
+        return (long) (mRandom.nextDouble() * (ceiling + 1));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Debug logging for hot paths, sampled and rate limited.
+ *
+ * Callers check {@link #isLoggable()} before building the message, so
+ * nothing is built unless the debug level is enabled for the app tag, e.g.
+ * with {@code adb shell setprop log.tag.ASTROPIKS_APP DEBUG}, and the
+ * event is sampled and within the rate limit.
+ */
+class SampledLog {
+
+    private static final String TAG = "ASTROPIKS_APP";
+    private static final Pattern API_KEY = Pattern.compile("(api_key=)[^&]*");
+
+    private final int mSampleEvery;
+    private final long mMinIntervalNanos;
+    private final AtomicLong mEvents = new AtomicLong();
+    private final AtomicLong mLastLogged = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates a sampled log.
+     *
+     * @param sampleEvery       logs one event in this many.
+     * @param minIntervalMillis the minimum time between two logged events.
+     */
+    SampledLog(int sampleEvery, long minIntervalMillis) {
+        mSampleEvery = sampleEvery;
+        mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(minIntervalMillis);
+    }
+
+    /**
+     * Tells whether this event should be logged, counting it either way.
+     *
+     * @return true if the event should be logged.
+     */
+    boolean isLoggable() {
+        if (mEvents.getAndIncrement() % mSampleEvery != 0 || !isDebugEnabled()) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        long last = mLastLogged.get();
+        return (last == Long.MIN_VALUE || now - last >= mMinIntervalNanos) && mLastLogged.compareAndSet(last, now);
+    }
+
+    /**
+     * Logs a message at debug level.
+     *
+     * @param message the message.
+     */
+    void log(String message) {
+        Log.d(TAG, message);
+    }
+
+    /**
+     * Hides the api key of a request URL.
+     *
+     * @param url the URL.
+     * @return the URL, without the api key value.
+     */
+    static String redact(String url) {
+        return url == null ? null : API_KEY.matcher(url).replaceAll("$1REDACTED");
+    }
+
+    boolean isDebugEnabled() {
+        return Log.isLoggable(TAG, Log.DEBUG);
+    }
+}
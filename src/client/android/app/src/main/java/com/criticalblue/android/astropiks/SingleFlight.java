@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collapses concurrent loads of the same key into a single load.
+ *
+ * The first caller for a key runs the load; callers arriving while it is
+ * still running wait for it and get the same result, or the same failure.
+ * Once done, the next caller for the key starts a new load. A result that
+ * can only be used once, e.g. a streaming response, is made shareable
+ * only when other callers are waiting for it.
+ *
+ * @param <K> the key type.
+ * @param <V> the result type.
+ */
+final class SingleFlight<K, V> {
+
+    /**
+     * Loads the result for a key.
+     */
+    interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    /**
+     * Makes a loaded result fit for more than one caller.
+     */
+    interface Sharer<V> {
+        V share(V result) throws IOException;
+    }
+
+    /**
+     * Thrown to the callers who shared a load that failed.
+     */
+    static final class SharedFailureException extends IOException {
+        SharedFailureException(Throwable cause) {
+            super(cause.toString(), cause);
+        }
+    }
+
+    private static final class Flight<V> {
+        private int mWaiters;
+        private boolean mDone;
+        private V mResult;
+        private Throwable mFailure;
+
+        synchronized void complete(V result, Throwable failure) {
+            mResult = result;
+            mFailure = failure;
+            mDone = true;
+            notifyAll();
+        }
+
+        synchronized V await() throws IOException {
+            while (!mDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            if (mFailure != null) {
+                throw new SharedFailureException(mFailure);
+            }
+            return mResult;
+        }
+    }
+
+    private final Map<K, Flight<V>> mFlights = new HashMap<>();
+    private final AtomicInteger mCollapsedCount = new AtomicInteger();
+
+    /**
+     * Returns the result for a key, sharing any load already running for it.
+     *
+     * @param key    the key.
+     * @param loader the load to run if none is running for the key.
+     * @return the result.
+     * @throws IOException if the load failed; {@link SharedFailureException}
+     *                     if it was another caller's load.
+     */
+    V execute(K key, Loader<V> loader) throws IOException {
+        return execute(key, loader, result -> result);
+    }
+
+    /**
+     * Returns the result for a key, sharing any load already running for it.
+     *
+     * The result is passed through the sharer only if other callers waited
+     * for it; the caller running the load then gets the shared result too.
+     *
+     * @param key    the key.
+     * @param loader the load to run if none is running for the key.
+     * @param sharer makes the result fit for the callers waiting for it.
+     * @return the result.
+     * @throws IOException if the load failed; {@link SharedFailureException}
+     *                     if it was another caller's load.
+     */
+    V execute(K key, Loader<V> loader, Sharer<V> sharer) throws IOException {
+        Flight<V> flight;
+        boolean leader = false;
+        synchronized (mFlights) {
+            flight = mFlights.get(key);
+            if (flight == null) {
+                flight = new Flight<>();
+                mFlights.put(key, flight);
+                leader = true;
+            } else {
+                flight.mWaiters++;
+            }
+        }
+
+        if (!leader) {
+            // another caller is loading it already
+            mCollapsedCount.incrementAndGet();
+            return flight.await();
+        }
+
+        V result = null;
+        Throwable failure = null;
+        try {
+            result = loader.load();
+        } catch (IOException | RuntimeException | Error e) {
+            failure = e;
+        }
+
+        // callers from now on start a new load, so the waiters are all known
+        boolean waited;
+        synchronized (mFlights) {
+            mFlights.remove(key);
+            waited = flight.mWaiters > 0;
+        }
+
+        if (failure == null && waited) {
+            try {
+                result = sharer.share(result);
+            } catch (IOException | RuntimeException | Error e) {
+                failure = e;
+            }
+        }
+        flight.complete(result, failure);
+
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the # of calls which shared another caller's load.
+     *
+     * @return the # of collapsed calls.
+     */
+    int getCollapsedCount() {
+        return mCollapsedCount.get();
+    }
+}
@@ -0,0 +1,193 @@
+package com.criticalblue.android.astropiks;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that concurrent duplicate requests reach the server only once, and
+ * that a request nobody shares streams its response.
+ */
+public class DeduplicatingInterceptorTest {
+
+    private static final int CALLERS = 8;
+    private static final long LATENCY_MILLIS = 300;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private FakeApodDispatcher mDispatcher;
+    private HttpClientProvider mProvider;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mDispatcher = new FakeApodDispatcher();
+        mDispatcher.setDelay(LATENCY_MILLIS);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(mDispatcher);
+        mServer.start();
+        mProvider = new HttpClientProvider(mTemporaryFolder.getRoot(), 1024 * 1024, 5, CALLERS * 2);
+        mExecutor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void duplicateImageRequests_shareOneCall() throws Exception {
+        List<Future<String>> bodies = new ArrayList<>();
+        for (int i = 0; i < CALLERS; ++i) {
+            bodies.add(mExecutor.submit(get("/planetary/apod?date=2024-08-02")));
+        }
+
+        String first = bodies.get(0).get(5, TimeUnit.SECONDS);
+        for (Future<String> body : bodies) {
+            assertEquals(first, body.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(CALLERS - 1, mProvider.getCollapsedRequestCount());
+    }
+
+    @Test
+    public void differentRequests_areNotShared() throws Exception {
+        List<Future<String>> bodies = new ArrayList<>();
+        for (int i = 0; i < CALLERS; ++i) {
+            bodies.add(mExecutor.submit(get("/planetary/apod?date=2024-08-0" + (i + 1))));
+        }
+        for (Future<String> body : bodies) {
+            body.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(CALLERS, mServer.getRequestCount());
+        assertEquals(0, mProvider.getCollapsedRequestCount());
+    }
+
+    @Test
+    public void duplicatePhotoWindows_shareOneCall() throws Exception {
+        final BlockingQueue<List<Photo>> received = new LinkedBlockingQueue<>();
+        String requestURL = mServer.url("/planetary/apod?api_key=test").toString();
+        PhotoRequester photoRequester = new PhotoRequester(requestURL, mProvider.get());
+        PhotoRequester.ResponseListener listener = new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                received.add(photos);
+            }
+        };
+
+        // the same page asked for twice, e.g. from onStart and from a scroll
+        int newestDay = photoRequester.getFirstDay() - 10;
+        photoRequester.getPhotos(newestDay, 10, listener);
+        photoRequester.getPhotos(newestDay, 10, listener);
+
+        assertEquals(10, received.poll(5, TimeUnit.SECONDS).size());
+        assertEquals(10, received.poll(5, TimeUnit.SECONDS).size());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mProvider.getCollapsedRequestCount());
+    }
+
+    @Test
+    public void cancelledCall_doesNotFailTheCallsSharingIt() throws Exception {
+        Request request = new Request.Builder().url(mServer.url("/planetary/apod?date=2024-08-02")).build();
+        Call leader = mProvider.get().newCall(request);
+        leader.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NonNull Call call, @NonNull IOException e) {
+            }
+
+            @Override
+            public void onResponse(@NonNull Call call, @NonNull Response response) {
+                response.close();
+            }
+        });
+        Thread.sleep(LATENCY_MILLIS / 3);
+
+        Future<String> follower = mExecutor.submit(get("/planetary/apod?date=2024-08-02"));
+        Thread.sleep(LATENCY_MILLIS / 3);
+        leader.cancel();
+
+        assertTrue(follower.get(5, TimeUnit.SECONDS).contains("2024-08-02"));
+        assertEquals(1, mProvider.getCollapsedRequestCount());
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void differentAccept_isNotShared() throws Exception {
+        Future<String> compact = mExecutor.submit(get("/planetary/apod?date=2024-08-02", PhotoRequester.ACCEPT));
+        Future<String> json = mExecutor.submit(get("/planetary/apod?date=2024-08-02", "application/json"));
+        compact.get(5, TimeUnit.SECONDS);
+        json.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(0, mProvider.getCollapsedRequestCount());
+    }
+
+    @Test
+    public void unsharedResponse_streamsToItsCaller() throws Exception {
+        MockWebServer server = new MockWebServer();
+        byte[] image = new byte[16 * 1024];
+        server.enqueue(new MockResponse()
+                .setBody(new Buffer().write(image))
+                .throttleBody(1024, 50, TimeUnit.MILLISECONDS));
+        server.start();
+        try {
+            Request request = new Request.Builder().url(server.url("/apod/image/a.jpg")).build();
+            long start = System.nanoTime();
+            try (Response response = mProvider.get().newCall(request).execute()) {
+                // the whole body takes about 800ms to arrive
+                long headers = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertTrue("response waited for its body: " + headers + "ms", headers < 400);
+                assertEquals(image.length, response.body().bytes().length);
+            }
+        } finally {
+            server.shutdown();
+        }
+        assertEquals(0, mProvider.getCollapsedRequestCount());
+    }
+
+    private Callable<String> get(final String path) {
+        return get(path, null);
+    }
+
+    private Callable<String> get(final String path, final String accept) {
+        return () -> {
+            Request.Builder request = new Request.Builder().url(mServer.url(path));
+            if (accept != null) {
+                request.header("Accept", accept);
+            }
+            try (Response response = mProvider.get().newCall(request.build()).execute()) {
+                return response.body().string();
+            }
+        };
+    }
+}
@@ -0,0 +1,249 @@
+package com.criticalblue.android.astropiks;
+
+import androidx.annotation.NonNull;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import okio.ByteString;
+
+/**
+ * Stands in for the APOD endpoint, answering single day and date range queries.
+ *
+ * Like the proxy, it can tag responses with an ETag, let past days be cached
+ * for good and answer 304 to a matching If-None-Match, and answer in the
+ * compact encoding when asked to.
+ */
+class FakeApodDispatcher extends Dispatcher {
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    private final Set<String> mVideoDates = new HashSet<>();
+    private final AtomicInteger mFailingResponses = new AtomicInteger();
+    private volatile long mDelayMillis;
+    private volatile boolean mDown;
+    private volatile boolean mCaching;
+    private volatile boolean mCompact;
+    private volatile int mErrorCode;
+
+    /**
+     * Marks a day as a video day.
+     *
+     * @param date the day, as yyyy-MM-dd.
+     */
+    void addVideoDate(String date) {
+        mVideoDates.add(date);
+    }
+
+    /**
+     * Delays every response, as a slow network would.
+     *
+     * @param delayMillis the delay in milliseconds.
+     */
+    void setDelay(long delayMillis) {
+        mDelayMillis = delayMillis;
+    }
+
+    /**
+     * Fails the next responses with a server error, as a proxy outage would.
+     *
+     * @param count the # of responses to fail.
+     */
+    void setFailingResponses(int count) {
+        mFailingResponses.set(count);
+    }
+
+    /**
+     * Drops every connection, as when the device is offline, or serves again.
+     *
+     * @param down true to drop connections.
+     */
+    void setDown(boolean down) {
+        mDown = down;
+    }
+
+    /**
+     * Sends the proxy's caching headers and honours conditional requests.
+     *
+     * @param caching true to send caching headers.
+     */
+    void setCaching(boolean caching) {
+        mCaching = caching;
+    }
+
+    /**
+     * Answers in the proxy's compact encoding when the request accepts it.
+     *
+     * @param compact true to offer the compact encoding.
+     */
+    void setCompact(boolean compact) {
+        mCompact = compact;
+    }
+
+    /**
+     * Answers every request with an error status and body, as the proxy
+     * does when it rejects an Approov token, or serves again.
+     *
+     * @param code the status, e.g. 401, or 0 to serve again.
+     */
+    void setErrorCode(int code) {
+        mErrorCode = code;
+    }
+
+    @NonNull
+    @Override
+    public MockResponse dispatch(@NonNull RecordedRequest request) {
+        if (mDown) {
+            return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+        }
+        if (mFailingResponses.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+            return new MockResponse().setResponseCode(500).setHeadersDelay(mDelayMillis, TimeUnit.MILLISECONDS);
+        }
+        if (mErrorCode != 0) {
+            return new MockResponse().setResponseCode(mErrorCode).setBody("{\"error\":\"Unauthorized\"}");
+        }
+        return respond(request).setHeadersDelay(mDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized MockResponse respond(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String date = url.queryParameter("date");
+        String startDate = url.queryParameter("start_date");
+        String endDate = url.queryParameter("end_date");
+
+        List<String> dates = new ArrayList<>();
+        try {
+            if (date != null) {
+                dates.add(date);
+            } else {
+                Calendar day = Calendar.getInstance();
+                day.setTime(mDateFormat.parse(startDate));
+                Calendar end = Calendar.getInstance();
+                end.setTime(mDateFormat.parse(endDate));
+
+                while (!day.after(end)) {
+                    dates.add(mDateFormat.format(day.getTime()));
+                    day.add(Calendar.DAY_OF_YEAR, 1);
+                }
+            }
+        } catch (ParseException | NullPointerException e) {
+            return new MockResponse().setResponseCode(400);
+        }
+
+        String lastDate = dates.get(dates.size() - 1);
+        String accept = request.getHeader("Accept");
+        if (mCompact && accept != null && accept.contains(ApodCborReader.MEDIA_TYPE)) {
+            return cacheable(request, lastDate, compactBody(dates), ApodCborReader.MEDIA_TYPE);
+        }
+
+        StringBuilder body = new StringBuilder(date != null ? "" : "[");
+        for (String day : dates) {
+            if (body.length() > 1) {
+                body.append(',');
+            }
+            body.append(entry(day));
+        }
+        if (date == null) {
+            body.append(']');
+        }
+        return cacheable(request, lastDate, ByteString.encodeUtf8(body.toString()), "application/json");
+    }
+
+    private MockResponse cacheable(RecordedRequest request, String lastDate, ByteString body, String contentType) {
+        MockResponse response = new MockResponse()
+                .setBody(new Buffer().write(body))
+                .setHeader("Content-Type", contentType);
+        if (!mCaching) {
+            return response;
+        }
+
+        String etag = "\"" + body.sha1().base64() + "\"";
+        String cacheControl = lastDate.compareTo(LocalDate.now().toString()) < 0
+                ? "public, max-age=31536000, immutable" : "no-cache";
+
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            return new MockResponse().setResponseCode(304)
+                    .setHeader("ETag", etag)
+                    .setHeader("Cache-Control", cacheControl);
+        }
+        return response
+                .setHeader("ETag", etag)
+                .setHeader("Cache-Control", cacheControl);
+    }
+
+    /**
+     * Returns the compact encoding of the days, as the proxy sends it.
+     *
+     * @param dates the days, as yyyy-MM-dd.
+     * @return the CBOR body.
+     */
+    private ByteString compactBody(List<String> dates) {
+        List<String> images = new ArrayList<>();
+        for (String date : dates) {
+            if (!mVideoDates.contains(date)) {
+                images.add(date);
+            }
+        }
+
+        Buffer body = new Buffer();
+        writeHead(body, 4, images.size());
+        for (String date : images) {
+            writeHead(body, 5, 4);
+            writeHead(body, 0, 0);
+            writeHead(body, 0, Photo.dayId(date));
+            writeText(body, 1, "Title " + date);
+            writeText(body, 2, "https://apod.nasa.gov/apod/image/" + date + ".jpg");
+            writeText(body, 3, "What happened on " + date + ".");
+        }
+        return body.readByteString();
+    }
+
+    private static void writeText(Buffer body, int key, String text) {
+        ByteString bytes = ByteString.encodeUtf8(text);
+        writeHead(body, 0, key);
+        writeHead(body, 3, bytes.size());
+        body.write(bytes);
+    }
+
+    private static void writeHead(Buffer body, int major, int value) {
+        if (value < 24) {
+            body.writeByte(major << 5 | value);
+        } else if (value < 0x100) {
+            body.writeByte(major << 5 | 24).writeByte(value);
+        } else if (value < 0x10000) {
+            body.writeByte(major << 5 | 25).writeShort(value);
+        } else {
+            body.writeByte(major << 5 | 26).writeInt(value);
+        }
+    }
+
+    /**
+     * Returns the APOD entry for a day.
+     *
+     * @param date the day, as yyyy-MM-dd.
+     * @return the JSON entry.
+     */
+    String entry(String date) {
+        String mediaType = mVideoDates.contains(date) ? "video" : "image";
+        return "{\"copyright\":\"Someone\",\"date\":\"" + date + "\","
+                + "\"explanation\":\"What happened on " + date + ".\","
+                + "\"hdurl\":\"https://apod.nasa.gov/apod/image/hd/" + date + ".jpg\","
+                + "\"media_type\":\"" + mediaType + "\",\"service_version\":\"v1\","
+                + "\"title\":\"Title " + date + "\","
+                + "\"url\":\"https://apod.nasa.gov/apod/image/" + date + ".jpg\"}";
+    }
+}
@@ -0,0 +1,121 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that gallery updates are flushed at most once per frame.
+ */
+public class FrameBatcherTest {
+
+    /**
+     * Runs the frame callbacks only when told, as the main thread would.
+     */
+    private static final class ManualFrameScheduler implements FrameBatcher.FrameScheduler {
+        private final List<Runnable> mCallbacks = new ArrayList<>();
+
+        @Override
+        public synchronized void postFrameCallback(Runnable callback) {
+            mCallbacks.add(callback);
+        }
+
+        void doFrame() {
+            List<Runnable> callbacks;
+            synchronized (this) {
+                callbacks = new ArrayList<>(mCallbacks);
+                mCallbacks.clear();
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+
+        synchronized int getPending() {
+            return mCallbacks.size();
+        }
+    }
+
+    private final ManualFrameScheduler mFrameScheduler = new ManualFrameScheduler();
+    private final PhotoManager mPhotoManager = new PhotoManager();
+    private final List<Integer> mShownSizes = new ArrayList<>();
+    private final FrameBatcher mBatcher = new FrameBatcher(mFrameScheduler,
+            () -> mShownSizes.add(mPhotoManager.getPhotos().size()));
+
+    @Test
+    public void requestFlush_photosArrivingOneByOneShowInOneFrame() {
+        for (int day = 100; day > 88; --day) {
+            mPhotoManager.addPhotos(Collections.singletonList(new Photo(day)));
+            mBatcher.requestFlush();
+        }
+        assertEquals(1, mFrameScheduler.getPending());
+
+        mFrameScheduler.doFrame();
+
+        System.out.println("12 photos shown in " + mBatcher.getFrameCount() + " frame(s)");
+        assertEquals(1, mBatcher.getFrameCount());
+        assertEquals(Collections.singletonList(12), mShownSizes);
+    }
+
+    @Test
+    public void requestFlush_concurrentPagesShowInOneFrame() throws Exception {
+        final int threads = 8;
+        final int pages = 20;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; ++t) {
+            final int thread = t;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int page = 0; page < pages; ++page) {
+                    List<Photo> photos = new ArrayList<>();
+                    for (int i = 0; i < 12; ++i) {
+                        photos.add(new Photo(((thread * pages) + page) * 12 + i));
+                    }
+                    mPhotoManager.addPhotos(photos);
+                    mBatcher.requestFlush();
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        mFrameScheduler.doFrame();
+
+        assertEquals(1, mBatcher.getFrameCount());
+        assertEquals(Collections.singletonList(threads * pages * 12), mShownSizes);
+    }
+
+    @Test
+    public void requestFlush_afterFrameSchedulesAnother() {
+        mPhotoManager.addPhotos(Collections.singletonList(new Photo(100)));
+        mBatcher.requestFlush();
+        mFrameScheduler.doFrame();
+
+        assertEquals(0, mFrameScheduler.getPending());
+        mFrameScheduler.doFrame();
+        assertEquals(1, mBatcher.getFrameCount());
+
+        mPhotoManager.addPhotos(Collections.singletonList(new Photo(99)));
+        mBatcher.requestFlush();
+        mFrameScheduler.doFrame();
+
+        assertEquals(2, mBatcher.getFrameCount());
+        assertEquals(Arrays.asList(1, 2), mShownSizes);
+    }
+}
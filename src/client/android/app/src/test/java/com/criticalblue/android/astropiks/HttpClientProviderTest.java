@@ -0,0 +1,235 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.tls.HandshakeCertificates;
+import okhttp3.tls.HeldCertificate;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the shared http client is created once and reuses its connection,
+ * and that a warm connection to a local TLS stand-in carries every request
+ * over HTTP/2.
+ */
+public class HttpClientProviderTest {
+
+    private static final int BINDS = 50;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private HttpClientProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mProvider = new HttpClientProvider(mTemporaryFolder.getRoot(), 1024 * 1024, 5, 5);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void get_returnsSameClient() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<OkHttpClient>> clients = new ArrayList<>();
+        for (int i = 0; i < 32; ++i) {
+            clients.add(executor.submit((Callable<OkHttpClient>) mProvider::get));
+        }
+
+        OkHttpClient first = clients.get(0).get();
+        for (Future<OkHttpClient> client : clients) {
+            assertSame(first, client.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void newBuilder_sharesDispatcherWithClient() {
+        OkHttpClient imageClient = mProvider.newBuilder().build();
+
+        assertSame(mProvider.get().dispatcher(), imageClient.dispatcher());
+        assertEquals(5, imageClient.dispatcher().getMaxRequestsPerHost());
+    }
+
+    @Test
+    public void get_reusesConnectionAcrossBinds() throws Exception {
+        for (int i = 0; i < BINDS; ++i) {
+            mServer.enqueue(new MockResponse().setBody("thumbnail " + i));
+        }
+
+        for (int i = 0; i < BINDS; ++i) {
+            // every bind asks the provider for its client, as the adapter does
+            Request request = new Request.Builder().url(mServer.url("/image/" + i + ".jpg")).build();
+            try (Response response = mProvider.get().newCall(request).execute()) {
+                assertEquals("thumbnail " + i, response.body().string());
+            }
+        }
+
+        // the sequence number counts requests made on the same connection
+        for (int i = 0; i < BINDS; ++i) {
+            assertEquals(i, mServer.takeRequest().getSequenceNumber());
+        }
+        assertEquals(1, mProvider.get().connectionPool().connectionCount());
+    }
+
+    @Test
+    public void warmUp_opensConnectionUsedByLaterRequests() throws Exception {
+        MockWebServer server = newTlsServer();
+        try {
+            OkHttpClient client = newTlsClient(mProvider);
+            Metrics metrics = Metrics.get();
+            long connects = metrics.getHistogram(Metrics.Timer.CONNECT).getCount();
+
+            HttpClientProvider.warmUp(client, server.url("/v1/api.nasa.gov/planetary/apod?api_key=test").toString());
+            RecordedRequest warmUp = server.takeRequest(5, TimeUnit.SECONDS);
+            assertNotNull(warmUp);
+            assertEquals("HEAD", warmUp.getMethod());
+            assertEquals("/", warmUp.getPath());
+            awaitIdleConnection(client);
+
+            // metadata and proxied images, at once
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Protocol>> protocols = new ArrayList<>();
+            for (int i = 0; i < 16; ++i) {
+                final String path = i % 2 == 0 ? "/v1/api.nasa.gov/planetary/apod?date=" + i : "/v1/apod.nasa.gov/apod/image/" + i + ".jpg";
+                protocols.add(executor.submit(() -> {
+                    try (Response response = client.newCall(new Request.Builder().url(server.url(path)).build()).execute()) {
+                        response.body().string();
+                        return response.protocol();
+                    }
+                }));
+            }
+            for (Future<Protocol> protocol : protocols) {
+                assertEquals(Protocol.HTTP_2, protocol.get());
+            }
+            executor.shutdown();
+
+            // only the warm-up connected
+            assertEquals(connects + 1, metrics.getHistogram(Metrics.Timer.CONNECT).getCount());
+            assertEquals(1, client.connectionPool().connectionCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void warmUp_connectionIsSharedWithImageClient() throws Exception {
+        MockWebServer server = newTlsServer();
+        try {
+            OkHttpClient client = newTlsClient(mProvider);
+            HttpClientProvider.warmUp(client, server.url("/").toString());
+            server.takeRequest(5, TimeUnit.SECONDS);
+            awaitIdleConnection(client);
+
+            // the image client is derived from the shared one, as the app does
+            OkHttpClient imageClient = ImageCache.newHttpClient(client, new Cache(mTemporaryFolder.newFolder(), 1024 * 1024));
+            Request request = new Request.Builder().url(server.url("/v1/apod.nasa.gov/apod/image/a.jpg")).build();
+            try (Response response = imageClient.newCall(request).execute()) {
+                assertEquals(Protocol.HTTP_2, response.protocol());
+            }
+
+            assertEquals(1, server.takeRequest().getSequenceNumber());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void warmUp_shortensFirstRequest() throws Exception {
+        MockWebServer server = newTlsServer();
+        try {
+            // once to load the TLS classes, not to count them in the cold request
+            timeFirstRequest(new HttpClientProvider(mTemporaryFolder.newFolder(), 1024 * 1024, 5, 5), server, false);
+            long cold = timeFirstRequest(new HttpClientProvider(mTemporaryFolder.newFolder(), 1024 * 1024, 5, 5), server, false);
+            long warm = timeFirstRequest(new HttpClientProvider(mTemporaryFolder.newFolder(), 1024 * 1024, 5, 5), server, true);
+
+            // for reference, timings on a loopback are too noisy to assert on
+            System.out.printf("first request over TLS: %dus cold, %dus warm%n",
+                    TimeUnit.NANOSECONDS.toMicros(cold), TimeUnit.NANOSECONDS.toMicros(warm));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private long timeFirstRequest(HttpClientProvider provider, MockWebServer server, boolean warmUp) throws Exception {
+        OkHttpClient client = newTlsClient(provider);
+        if (warmUp) {
+            HttpClientProvider.warmUp(client, server.url("/").toString());
+            awaitIdleConnection(client);
+        }
+
+        long start = System.nanoTime();
+        try (Response response = client.newCall(new Request.Builder().url(server.url("/v1/first")).build()).execute()) {
+            response.body().string();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void awaitIdleConnection(OkHttpClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (client.connectionPool().idleConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, client.connectionPool().idleConnectionCount());
+    }
+
+    private static final HeldCertificate LOCALHOST = new HeldCertificate.Builder()
+            .addSubjectAlternativeName("localhost")
+            .build();
+
+    private static final HandshakeCertificates CLIENT_CERTIFICATES = new HandshakeCertificates.Builder()
+            .addTrustedCertificate(LOCALHOST.certificate())
+            .build();
+
+    private static MockWebServer newTlsServer() throws Exception {
+        HandshakeCertificates serverCertificates = new HandshakeCertificates.Builder()
+                .heldCertificate(LOCALHOST)
+                .build();
+
+        MockWebServer server = new MockWebServer();
+        server.useHttps(serverCertificates.sslSocketFactory(), false);
+        server.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return "HEAD".equals(request.getMethod()) ? new MockResponse() : new MockResponse().setBody("ok");
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    private static OkHttpClient newTlsClient(HttpClientProvider provider) {
+        return provider.newBuilder()
+                .sslSocketFactory(CLIENT_CERTIFICATES.sslSocketFactory(), CLIENT_CERTIFICATES.trustManager())
+                .build();
+    }
+}
@@ -0,0 +1,104 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import okhttp3.Cache;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okio.Buffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the disk tier of the image cache against a local image server.
+ */
+public class ImageCacheTest {
+
+    private static final int IMAGE_SIZE = 4 * 1024;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private MockWebServer mServer;
+    private Cache mDiskCache;
+    private OkHttpClient mHttpClient;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mDiskCache = new Cache(mTemporaryFolder.getRoot(), 1024 * 1024);
+        mHttpClient = ImageCache.newHttpClient(new OkHttpClient(), mDiskCache);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+        mDiskCache.close();
+    }
+
+    @Test
+    public void secondLoad_makesNoNetworkRequest() throws Exception {
+        // APOD images come without caching headers
+        mServer.enqueue(new MockResponse().setBody(image()));
+
+        byte[] first = load("/image/2024-08-02.jpg");
+        byte[] second = load("/image/2024-08-02.jpg");
+
+        assertArrayEquals(first, second);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, mDiskCache.hitCount());
+        assertEquals(1, mDiskCache.networkCount());
+    }
+
+    @Test
+    public void secondLoad_honoursServerCachingHeaders() throws Exception {
+        mServer.enqueue(new MockResponse().setBody(image()).setHeader("Cache-Control", "no-store"));
+        mServer.enqueue(new MockResponse().setBody(image()).setHeader("Cache-Control", "no-store"));
+
+        load("/image/2024-08-02.jpg");
+        load("/image/2024-08-02.jpg");
+
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    @Test
+    public void diskTier_evictsBeyondMaxSize() throws Exception {
+        Cache diskCache = new Cache(mTemporaryFolder.newFolder(), 3 * IMAGE_SIZE);
+        mHttpClient = ImageCache.newHttpClient(new OkHttpClient(), diskCache);
+        for (int i = 0; i < 6; ++i) {
+            mServer.enqueue(new MockResponse().setBody(image()));
+        }
+
+        for (int i = 0; i < 5; ++i) {
+            load("/image/" + i + ".jpg");
+        }
+        diskCache.flush();
+        assertTrue(diskCache.size() <= diskCache.maxSize());
+
+        // the least recently used image is downloaded again
+        load("/image/0.jpg");
+        assertEquals(6, mServer.getRequestCount());
+        diskCache.close();
+    }
+
+    private byte[] load(String path) throws IOException {
+        Request request = new Request.Builder().url(mServer.url(path)).build();
+        try (Response response = mHttpClient.newCall(request).execute()) {
+            return response.body().bytes();
+        }
+    }
+
+    private static Buffer image() {
+        return new Buffer().write(new byte[IMAGE_SIZE]);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ImageRenditionsTest {
+
+    private static final String PROXY_URL = "http://10.0.2.2:8080/v1/";
+    private static final String IMAGE_URL = "http://10.0.2.2:8080/v1/apod.nasa.gov/apod/image/1706/a.jpg";
+
+    private final ImageRenditions mRenditions = new ImageRenditions(PROXY_URL);
+
+    @Test
+    public void urlOf_proxiedImage_asksForWebpAtWidth() {
+        assertEquals(IMAGE_URL + "?w=576&format=webp", mRenditions.urlOf(IMAGE_URL, 576));
+    }
+
+    @Test
+    public void urlOf_roundsWidthUp() {
+        assertEquals(IMAGE_URL + "?w=576&format=webp", mRenditions.urlOf(IMAGE_URL, 540));
+        assertEquals(IMAGE_URL + "?w=64&format=webp", mRenditions.urlOf(IMAGE_URL, 1));
+    }
+
+    @Test
+    public void urlOf_directImage_isUnchanged() {
+        String direct = "https://apod.nasa.gov/apod/image/1706/a.jpg";
+        assertEquals(direct, mRenditions.urlOf(direct, 540));
+        assertEquals("http://10.0.2.2:9090/v1/a.jpg", mRenditions.urlOf("http://10.0.2.2:9090/v1/a.jpg", 540));
+    }
+
+    @Test
+    public void urlOf_noWidthOrUrl_isUnchanged() {
+        assertEquals(IMAGE_URL, mRenditions.urlOf(IMAGE_URL, 0));
+        assertNull(mRenditions.urlOf(null, 540));
+        assertEquals("not a url", mRenditions.urlOf("not a url", 540));
+    }
+
+    @Test
+    public void urlOf_invalidProxyUrl_isUnchanged() {
+        assertEquals(IMAGE_URL, new ImageRenditions("null").urlOf(IMAGE_URL, 540));
+    }
+}
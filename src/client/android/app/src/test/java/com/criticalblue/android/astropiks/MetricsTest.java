@@ -0,0 +1,112 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the histograms bound their percentiles and the call timings are recorded.
+ */
+public class MetricsTest {
+
+    private MockWebServer mServer;
+    private Metrics mMetrics;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+        mMetrics = new Metrics();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void bucketOf_isWithinBucketBounds() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = Histogram.bucketOf(value);
+            assertTrue(value + " above its bucket", value <= Histogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                assertTrue(value + " below its bucket", value > Histogram.upperBoundOf(bucket - 1));
+            }
+        }
+    }
+
+    @Test
+    public void getPercentile_isWithinQuarter() {
+        Histogram histogram = new Histogram();
+        for (long value = 1; value <= 1000; ++value) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMean());
+        assertEquals(1000, histogram.getMax());
+        assertBetween(500, histogram.getPercentile(50), 625);
+        assertBetween(900, histogram.getPercentile(90), 1000);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void getPercentile_whenEmpty_isZero() {
+        Histogram histogram = new Histogram();
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(0, histogram.getMean());
+    }
+
+    @Test
+    public void dump_listsEveryTimer() {
+        mMetrics.record(Metrics.Timer.JSON_PARSE, TimeUnit.MILLISECONDS.toNanos(3));
+        StringWriter out = new StringWriter();
+
+        mMetrics.dump(out);
+
+        String dump = out.toString();
+        for (Metrics.Timer timer : Metrics.Timer.values()) {
+            assertTrue(timer + " missing", dump.contains(timer.name().toLowerCase()));
+        }
+        assertTrue(dump, dump.contains("json_parse          1      3.00"));
+    }
+
+    @Test
+    public void eventListener_recordsCallTimings() throws Exception {
+        OkHttpClient client = new OkHttpClient.Builder()
+                .eventListenerFactory(MetricsEventListener.factory(mMetrics))
+                .build();
+        mServer.enqueue(new MockResponse().setBody("first"));
+        mServer.enqueue(new MockResponse().setBody("second"));
+
+        for (int i = 0; i < 2; ++i) {
+            try (Response response = client.newCall(new Request.Builder().url(mServer.url("/")).build()).execute()) {
+                assertNotNull(response.body());
+                response.body().string();
+            }
+        }
+
+        // the second call reuses the connection
+        assertEquals(2, mMetrics.getHistogram(Metrics.Timer.CALL).getCount());
+        assertEquals(2, mMetrics.getHistogram(Metrics.Timer.TTFB).getCount());
+        assertEquals(1, mMetrics.getHistogram(Metrics.Timer.CONNECT).getCount());
+        assertEquals(0, mMetrics.getHistogram(Metrics.Timer.TLS).getCount());
+    }
+
+    private static void assertBetween(long min, long value, long max) {
+        assertTrue(value + " not in [" + min + ", " + max + "]", value >= min && value <= max);
+    }
+}
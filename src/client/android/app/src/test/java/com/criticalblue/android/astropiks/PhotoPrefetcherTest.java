@@ -0,0 +1,202 @@
+package com.criticalblue.android.astropiks;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks gallery prefetching against a slow local APOD stand-in.
+ */
+public class PhotoPrefetcherTest {
+
+    private static final int PAGE_SIZE = 12;
+    private static final long LATENCY_MILLIS = 100;
+    private static final long READING_MILLIS = 150;
+
+    private final List<Photo> mDelivered = new ArrayList<>();
+    private final AtomicInteger mInFlightCalls = new AtomicInteger();
+    private final AtomicInteger mMaxInFlightCalls = new AtomicInteger();
+    private final AtomicInteger mCancelledCalls = new AtomicInteger();
+
+    private MockWebServer mServer;
+    private FakeApodDispatcher mDispatcher;
+    private PhotoRequester mPhotoRequester;
+
+    @Before
+    public void setUp() throws Exception {
+        mDispatcher = new FakeApodDispatcher();
+        mDispatcher.setDelay(LATENCY_MILLIS);
+        mServer = new MockWebServer();
+        mServer.setDispatcher(mDispatcher);
+        mServer.start();
+
+        // count the calls on the wire
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .eventListener(new EventListener() {
+                    @Override
+                    public void callStart(@NonNull Call call) {
+                        int inFlight = mInFlightCalls.incrementAndGet();
+                        mMaxInFlightCalls.accumulateAndGet(inFlight, Math::max);
+                    }
+
+                    @Override
+                    public void callEnd(@NonNull Call call) {
+                        mInFlightCalls.decrementAndGet();
+                    }
+
+                    @Override
+                    public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+                        mInFlightCalls.decrementAndGet();
+                    }
+
+                    @Override
+                    public void canceled(@NonNull Call call) {
+                        mCancelledCalls.incrementAndGet();
+                    }
+                })
+                .build();
+
+        String requestURL = mServer.url("/planetary/apod?api_key=test").toString();
+        mPhotoRequester = new PhotoRequester(requestURL, httpClient, null, Runnable::run);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    private PhotoPrefetcher newPrefetcher(int pagesAhead, int maxInFlight) {
+        return new PhotoPrefetcher(mPhotoRequester, PAGE_SIZE, pagesAhead, maxInFlight, new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                synchronized (mDelivered) {
+                    mDelivered.addAll(photos);
+                    mDelivered.notifyAll();
+                }
+            }
+        });
+    }
+
+    private long awaitDelivered(int count) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(10);
+        synchronized (mDelivered) {
+            while (mDelivered.size() < count) {
+                long left = deadline - System.nanoTime();
+                assertTrue("timed out waiting for " + count + " photos", left > 0);
+                TimeUnit.NANOSECONDS.timedWait(mDelivered, left);
+            }
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /**
+     * Scrolls one screen at a time, stopping to read each, and returns the
+     * total time spent waiting for screens to fill.
+     */
+    private long scroll(PhotoPrefetcher prefetcher, int screens) throws InterruptedException {
+        long waited = 0;
+        for (int screen = 1; screen <= screens; ++screen) {
+            int lastVisible = screen * PAGE_SIZE - 1;
+            prefetcher.onViewportChanged(lastVisible);
+            waited += awaitDelivered(lastVisible + 1);
+            Thread.sleep(READING_MILLIS);
+        }
+        return waited;
+    }
+
+    @Test
+    public void scroll_prefetchingFillsScreensSooner() throws Exception {
+        long serial = scroll(newPrefetcher(0, 1), 6);
+
+        synchronized (mDelivered) {
+            mDelivered.clear();
+        }
+        long prefetched = scroll(newPrefetcher(2, 2), 6);
+
+        System.out.println("time-to-fill for 6 screens at " + LATENCY_MILLIS + "ms latency: "
+                + serial + "ms on demand, " + prefetched + "ms prefetched");
+        assertTrue(prefetched < serial);
+    }
+
+    @Test
+    public void scroll_neverExceedsMaxInFlight() throws Exception {
+        PhotoPrefetcher prefetcher = newPrefetcher(4, 2);
+
+        prefetcher.onViewportChanged(10 * PAGE_SIZE - 1);
+        assertTrue(prefetcher.getInFlightCount() <= 2);
+        awaitDelivered(14 * PAGE_SIZE);
+
+        assertEquals(2, mMaxInFlightCalls.get());
+        assertEquals(14, mServer.getRequestCount());
+    }
+
+    @Test
+    public void scroll_deliversPhotosNewestFirst() throws Exception {
+        PhotoPrefetcher prefetcher = newPrefetcher(2, 3);
+
+        prefetcher.onViewportChanged(PAGE_SIZE - 1);
+        awaitDelivered(3 * PAGE_SIZE);
+
+        synchronized (mDelivered) {
+            int firstDay = mPhotoRequester.getFirstDay();
+            for (int i = 0; i < mDelivered.size(); ++i) {
+                assertEquals(firstDay - i, mDelivered.get(i).getId());
+            }
+        }
+    }
+
+    @Test
+    public void scrollBack_cancelsPagesNoLongerNeeded() throws Exception {
+        PhotoPrefetcher prefetcher = newPrefetcher(0, 3);
+
+        prefetcher.onViewportChanged(3 * PAGE_SIZE - 1);
+        assertEquals(3, prefetcher.getInFlightCount());
+
+        prefetcher.onViewportChanged(PAGE_SIZE - 1);
+        assertEquals(1, prefetcher.getInFlightCount());
+        assertEquals(2, mCancelledCalls.get());
+
+        awaitDelivered(PAGE_SIZE);
+        Thread.sleep(2 * LATENCY_MILLIS);
+        synchronized (mDelivered) {
+            assertEquals(PAGE_SIZE, mDelivered.size());
+        }
+    }
+
+    @Test
+    public void stop_cancelsEveryPage() throws Exception {
+        PhotoPrefetcher prefetcher = newPrefetcher(1, 2);
+
+        prefetcher.onViewportChanged(PAGE_SIZE - 1);
+        assertEquals(2, prefetcher.getInFlightCount());
+
+        prefetcher.stop();
+        assertEquals(0, prefetcher.getInFlightCount());
+        assertEquals(2, mCancelledCalls.get());
+
+        Thread.sleep(2 * LATENCY_MILLIS);
+        synchronized (mDelivered) {
+            assertTrue(mDelivered.isEmpty());
+        }
+
+        // and picks up again on the next viewport change
+        prefetcher.onViewportChanged(PAGE_SIZE - 1);
+        awaitDelivered(2 * PAGE_SIZE);
+    }
+}
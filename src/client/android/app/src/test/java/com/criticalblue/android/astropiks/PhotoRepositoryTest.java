@@ -0,0 +1,215 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the gallery is served from the photo store and synced once a
+ * local APOD stand-in comes back up, and that failures a sync cannot fix
+ * are not retried.
+ */
+public class PhotoRepositoryTest {
+
+    private static final long SYNC_INTERVAL_MILLIS = 100;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final BlockingQueue<List<Photo>> mStored = new LinkedBlockingQueue<>();
+    private final BlockingQueue<List<Photo>> mReceived = new LinkedBlockingQueue<>();
+
+    private MockWebServer mServer;
+    private FakeApodDispatcher mDispatcher;
+    private ScheduledExecutorService mExecutor;
+    private PhotoStore mPhotoStore;
+    private PhotoRequester mPhotoRequester;
+    private PhotoRepository mPhotoRepository;
+    private int mToday;
+
+    @Before
+    public void setUp() throws Exception {
+        mDispatcher = new FakeApodDispatcher();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(mDispatcher);
+        mServer.start();
+
+        mExecutor = Executors.newSingleThreadScheduledExecutor();
+        mPhotoStore = new PhotoStore(new File(mTemporaryFolder.getRoot(), "photos.store"));
+
+        String requestURL = mServer.url("/planetary/apod?api_key=test").toString();
+        OkHttpClient client = new OkHttpClient.Builder().retryOnConnectionFailure(false).build();
+        mPhotoRequester = new PhotoRequester(requestURL, client, mPhotoStore, mExecutor, null);
+        mPhotoRepository = new PhotoRepository(mPhotoRequester, mPhotoStore, mExecutor, SYNC_INTERVAL_MILLIS,
+                new PhotoRequester.ResponseListener() {
+                    @Override
+                    public void receivedPhotos(List<Photo> photos) {
+                        mStored.add(photos);
+                    }
+                });
+        mToday = mPhotoRepository.getFirstDay();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mExecutor.shutdownNow();
+        mServer.shutdown();
+        mPhotoStore.close();
+    }
+
+    @Test
+    public void getPhotos_whenEveryDayStored_skipsNetwork() throws Exception {
+        store(1, 10);
+
+        mPhotoRepository.getPhotos(mToday - 1, 10, newListener());
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+        assertEquals(0, mServer.getRequestCount());
+        assertTrue(mStored.isEmpty());
+    }
+
+    @Test
+    public void getPhotos_whenOffline_showsStoredDaysWithoutPlaceholders() throws Exception {
+        store(1, 9);
+        mDispatcher.setDown(true);
+
+        mPhotoRepository.getPhotos(mToday, 10, newListener());
+        List<Photo> stored = mStored.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(stored);
+        assertEquals(9, stored.size());
+        assertEquals(Photo.dayOf(mToday - 1), Photo.dayOf(stored.get(0).getId()));
+        for (Photo photo : stored) {
+            assertFalse(photo.isPlaceholder());
+        }
+
+        // a few failed syncs, and still no window
+        waitForRequests(3);
+        assertNull(mReceived.poll(SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS));
+        assertEquals(1, mPhotoRepository.getUnsyncedCount());
+    }
+
+    @Test
+    public void getPhotos_whenBackOnline_syncsMissingDaysOnly() throws Exception {
+        store(1, 9);
+        mDispatcher.setDown(true);
+
+        mPhotoRepository.getPhotos(mToday, 10, newListener());
+        waitForRequests(2);
+        mDispatcher.setDown(false);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+        for (int i = 0; i < photos.size(); ++i) {
+            assertEquals(mToday - i, photos.get(i).getId());
+        }
+        assertEquals(0, mPhotoRepository.getUnsyncedCount());
+
+        // every sync asked for today alone
+        RecordedRequest request;
+        while ((request = mServer.takeRequest(0, TimeUnit.SECONDS)) != null) {
+            assertEquals(Photo.dayOf(mToday), request.getRequestUrl().queryParameter("start_date"));
+            assertEquals(Photo.dayOf(mToday), request.getRequestUrl().queryParameter("end_date"));
+        }
+    }
+
+    @Test
+    public void getPhotos_whenBackOnline_syncsEveryWaitingWindow() throws Exception {
+        mDispatcher.setDown(true);
+
+        mPhotoRepository.getPhotos(mToday, 5, newListener());
+        mPhotoRepository.getPhotos(mToday - 5, 5, newListener());
+        waitForRequests(2);
+        mDispatcher.setDown(false);
+
+        List<Photo> first = mReceived.poll(5, TimeUnit.SECONDS);
+        List<Photo> second = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(10, first.size() + second.size());
+        assertTrue(mPhotoStore.contains(Photo.dayOf(mToday - 9)));
+    }
+
+    @Test
+    public void getPhotos_whenUnauthorized_deliversPlaceholderOnce() throws Exception {
+        mDispatcher.setErrorCode(401);
+
+        mPhotoRepository.getPhotos(mToday, 5, newListener());
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(photos);
+        assertEquals(1, photos.size());
+        assertTrue(photos.get(0).isPlaceholder());
+        assertEquals("Unauthorized", photos.get(0).getTitle());
+
+        // not synced again
+        Thread.sleep(3 * SYNC_INTERVAL_MILLIS);
+        assertNull(mReceived.poll(0, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(0, mPhotoRepository.getUnsyncedCount());
+    }
+
+    @Test
+    public void cancel_stopsSyncing() throws Exception {
+        mDispatcher.setDown(true);
+
+        PhotoRequester.PendingRequest pending = mPhotoRepository.getPhotos(mToday, 5, newListener());
+        waitForRequests(1);
+        pending.cancel();
+        Thread.sleep(3 * SYNC_INTERVAL_MILLIS);
+        int requests = mServer.getRequestCount();
+        mDispatcher.setDown(false);
+        Thread.sleep(3 * SYNC_INTERVAL_MILLIS);
+
+        assertTrue(mServer.getRequestCount() <= requests + 1);
+        assertNull(mReceived.poll(0, TimeUnit.SECONDS));
+        assertEquals(0, mPhotoRepository.getUnsyncedCount());
+    }
+
+    private PhotoRequester.ResponseListener newListener() {
+        return new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                mReceived.add(photos);
+            }
+        };
+    }
+
+    private void store(int fromDaysAgo, int toDaysAgo) {
+        for (int days = fromDaysAgo; days <= toDaysAgo; ++days) {
+            String date = Photo.dayOf(mToday - days);
+            Photo photo = new Photo(mToday - days);
+            photo.setTitle("Title " + date);
+            photo.setUrl("https://apod.nasa.gov/apod/image/" + date + ".jpg");
+            mPhotoStore.put(date, photo);
+        }
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mServer.getRequestCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("no requests", mServer.getRequestCount() >= count);
+    }
+}
@@ -0,0 +1,364 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the photo requests sent to a local APOD stand-in.
+ */
+public class PhotoRequesterTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd", Locale.US);
+    private final BlockingQueue<List<Photo>> mReceived = new LinkedBlockingQueue<>();
+
+    private MockWebServer mServer;
+    private FakeApodDispatcher mDispatcher;
+    private PhotoRequester mPhotoRequester;
+    private ScheduledExecutorService mScheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        mDispatcher = new FakeApodDispatcher();
+        mServer = new MockWebServer();
+        mServer.setDispatcher(mDispatcher);
+        mServer.start();
+
+        mPhotoRequester = newPhotoRequester(null);
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    private PhotoRequester newPhotoRequester(PhotoStore photoStore) {
+        return newPhotoRequester(photoStore, null);
+    }
+
+    private PhotoRequester newPhotoRequester(PhotoStore photoStore, RetryPolicy retryPolicy) {
+        return newPhotoRequester(new OkHttpClient(), photoStore, retryPolicy);
+    }
+
+    private PhotoRequester newPhotoRequester(OkHttpClient client, PhotoStore photoStore, RetryPolicy retryPolicy) {
+        String requestURL = mServer.url("/planetary/apod?api_key=test").toString();
+        return new PhotoRequester(requestURL, client, photoStore, Runnable::run, retryPolicy);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mScheduler.shutdownNow();
+        mServer.shutdown();
+    }
+
+    @Test
+    public void getPhotos_sendsOneRequestPerPage() throws Exception {
+        getPhotos(mPhotoRequester, 0, 10);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(1, mServer.getRequestCount());
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals(daysAgo(9), request.getRequestUrl().queryParameter("start_date"));
+        assertEquals(daysAgo(0), request.getRequestUrl().queryParameter("end_date"));
+
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+        for (int i = 0; i < photos.size(); ++i) {
+            assertEquals("Title " + daysAgo(i), photos.get(i).getTitle());
+        }
+    }
+
+    @Test
+    public void getPhotos_skipsVideoDays() throws Exception {
+        mDispatcher.addVideoDate(daysAgo(2));
+
+        getPhotos(mPhotoRequester, 0, 4);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertNotNull(photos);
+        assertEquals(3, photos.size());
+        assertEquals("Title " + daysAgo(0), photos.get(0).getTitle());
+        assertEquals("Title " + daysAgo(1), photos.get(1).getTitle());
+        assertEquals("Title " + daysAgo(3), photos.get(2).getTitle());
+    }
+
+    @Test
+    public void getPhotos_readsCompactResponses() throws Exception {
+        mDispatcher.setCompact(true);
+        mDispatcher.addVideoDate(daysAgo(2));
+        long jsonParses = Metrics.get().getHistogram(Metrics.Timer.JSON_PARSE).getCount();
+        long cborParses = Metrics.get().getHistogram(Metrics.Timer.CBOR_PARSE).getCount();
+
+        getPhotos(mPhotoRequester, 0, 4);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(PhotoRequester.ACCEPT, mServer.takeRequest().getHeader("Accept"));
+        assertNotNull(photos);
+        assertEquals(3, photos.size());
+        assertEquals(Photo.dayId(daysAgo(0)), photos.get(0).getId());
+        assertEquals(ApodJsonReader.parseDate(daysAgo(0)), photos.get(0).getDate());
+        assertEquals("Title " + daysAgo(0), photos.get(0).getTitle());
+        assertEquals("What happened on " + daysAgo(0) + ".", photos.get(0).getDesc());
+        assertEquals("https://apod.nasa.gov/apod/image/" + daysAgo(0) + ".jpg", photos.get(0).getUrl());
+        assertEquals("Title " + daysAgo(1), photos.get(1).getTitle());
+        assertEquals("Title " + daysAgo(3), photos.get(2).getTitle());
+
+        // timed apart from JSON
+        assertEquals(jsonParses, Metrics.get().getHistogram(Metrics.Timer.JSON_PARSE).getCount());
+        assertEquals(cborParses + 1, Metrics.get().getHistogram(Metrics.Timer.CBOR_PARSE).getCount());
+    }
+
+    @Test
+    public void getPhotos_servesStoredDaysWithoutRequest() throws Exception {
+        PhotoStore photoStore = new PhotoStore(mTemporaryFolder.newFile());
+        for (int i = 1; i <= 10; ++i) {
+            photoStore.put(daysAgo(i), PhotoStoreTest.photo(daysAgo(i)));
+        }
+        photoStore.put(daysAgo(11), null);
+        PhotoRequester photoRequester = newPhotoRequester(photoStore);
+
+        // today is never stored, so only today is requested
+        getPhotos(photoRequester, 0, 1);
+        mReceived.poll(5, TimeUnit.SECONDS);
+        assertEquals(1, mServer.getRequestCount());
+
+        getPhotos(photoRequester, 1, 11);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(1, mServer.getRequestCount());
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+        assertEquals("Title " + daysAgo(1), photos.get(0).getTitle());
+        assertEquals("Title " + daysAgo(10), photos.get(9).getTitle());
+    }
+
+    @Test
+    public void getPhotos_coldStartRequestsOnlyMissingDays() throws Exception {
+        File file = mTemporaryFolder.newFile();
+        mDispatcher.addVideoDate(daysAgo(15));
+
+        PhotoRequester photoRequester = newPhotoRequester(new PhotoStore(file));
+        getPhotos(photoRequester, 0, 10);
+        mReceived.poll(5, TimeUnit.SECONDS);
+        getPhotos(photoRequester, 10, 10);
+        mReceived.poll(5, TimeUnit.SECONDS);
+        assertEquals(2, mServer.getRequestCount());
+        mServer.takeRequest();
+        mServer.takeRequest();
+
+        // a new store over the same file, as after a restart
+        PhotoRequester restarted = newPhotoRequester(new PhotoStore(file));
+        getPhotos(restarted, 0, 10);
+        List<Photo> firstPage = mReceived.poll(5, TimeUnit.SECONDS);
+        getPhotos(restarted, 10, 10);
+        List<Photo> secondPage = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(3, mServer.getRequestCount());
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals(daysAgo(0), request.getRequestUrl().queryParameter("start_date"));
+        assertEquals(daysAgo(0), request.getRequestUrl().queryParameter("end_date"));
+
+        assertEquals(10, firstPage.size());
+        assertEquals(9, secondPage.size());
+        assertEquals("Title " + daysAgo(10), secondPage.get(0).getTitle());
+    }
+
+    @Test
+    public void getPhotos_retriesServerErrorsWithinBudget() throws Exception {
+        mDispatcher.setFailingResponses(2);
+        PhotoRequester photoRequester = newPhotoRequester(null, new RetryPolicy(mScheduler, 10, 50, 3, 100, 1000));
+
+        getPhotos(photoRequester, 0, 10);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(3, mServer.getRequestCount());
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+    }
+
+    @Test
+    public void getPhotos_givesUpWhenBudgetSpent() throws Exception {
+        mDispatcher.setFailingResponses(Integer.MAX_VALUE);
+        PhotoRequester photoRequester = newPhotoRequester(null, new RetryPolicy(mScheduler, 10, 50, 3, 100, 1000));
+
+        getPhotos(photoRequester, 0, 10);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        // the request and its 3 retries, then one placeholder for the page
+        assertEquals(4, mServer.getRequestCount());
+        assertNotNull(photos);
+        assertEquals(1, photos.size());
+        assertTrue(photos.get(0).isPlaceholder());
+        assertNull(mReceived.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    @Test
+    public void getPhotos_failsFastDuringOutage() throws Exception {
+        mDispatcher.setFailingResponses(Integer.MAX_VALUE);
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 10, 50, 3, 5, 60000);
+        PhotoRequester photoRequester = newPhotoRequester(null, retryPolicy);
+
+        // 4 failures on the first page, the 5th on the second opens the circuit
+        for (int page = 0; page < 20; ++page) {
+            getPhotos(photoRequester, page * 10, 10);
+            List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+            assertNotNull(photos);
+            assertTrue(photos.get(0).isPlaceholder());
+        }
+
+        assertTrue(retryPolicy.isOpen());
+        assertEquals(5, mServer.getRequestCount());
+    }
+
+    @Test
+    public void getPhotos_resumesAfterOutage() throws Exception {
+        mDispatcher.setFailingResponses(5);
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 10, 50, 3, 5, 100);
+        PhotoRequester photoRequester = newPhotoRequester(null, retryPolicy);
+
+        getPhotos(photoRequester, 0, 10);
+        mReceived.poll(5, TimeUnit.SECONDS);
+        getPhotos(photoRequester, 10, 10);
+        mReceived.poll(5, TimeUnit.SECONDS);
+        assertTrue(retryPolicy.isOpen());
+
+        // one trial once the circuit has been open long enough
+        Thread.sleep(200);
+        getPhotos(photoRequester, 20, 10);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(6, mServer.getRequestCount());
+        assertFalse(retryPolicy.isOpen());
+        assertNotNull(photos);
+        assertEquals(10, photos.size());
+    }
+
+    @Test
+    public void getPhotos_retriesSameWindowOnServerError() throws Exception {
+        mDispatcher.setFailingResponses(1);
+        PhotoRequester photoRequester = newPhotoRequester(null, new RetryPolicy(mScheduler, 10, 50, 3, 100, 1000));
+
+        getPhotos(photoRequester, 3, 4);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(2, mServer.getRequestCount());
+        for (int i = 0; i < 2; ++i) {
+            RecordedRequest request = mServer.takeRequest();
+            assertEquals(daysAgo(6), request.getRequestUrl().queryParameter("start_date"));
+            assertEquals(daysAgo(3), request.getRequestUrl().queryParameter("end_date"));
+        }
+        assertNotNull(photos);
+        assertEquals("Title " + daysAgo(3), photos.get(0).getTitle());
+    }
+
+    @Test
+    public void getPhotos_unauthorized_releasesConnection() throws Exception {
+        mDispatcher.setErrorCode(401);
+
+        getPhotos(mPhotoRequester, 0, 4);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+        getPhotos(mPhotoRequester, 4, 4);
+        mReceived.poll(5, TimeUnit.SECONDS);
+
+        assertNotNull(photos);
+        assertEquals(1, photos.size());
+        assertEquals("Unauthorized", photos.get(0).getTitle());
+        // the second request reuses the connection only if the first response was closed
+        mServer.takeRequest();
+        assertEquals(1, mServer.takeRequest().getSequenceNumber());
+    }
+
+    @Test
+    public void getPhotos_skipsVideoDayWithinWindow() throws Exception {
+        mDispatcher.addVideoDate(daysAgo(0));
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 10, 50, 3, 1, 60000);
+        PhotoRequester photoRequester = newPhotoRequester(null, retryPolicy);
+
+        getPhotos(photoRequester, 0, 2);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+
+        // no day outside the window asked for instead, and no failure recorded
+        assertNull(mReceived.poll(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, mServer.getRequestCount());
+        assertNotNull(photos);
+        assertEquals(1, photos.size());
+        assertEquals("Title " + daysAgo(1), photos.get(0).getTitle());
+        assertFalse(retryPolicy.isOpen());
+    }
+
+    @Test
+    public void getPhotos_repeatSession_revalidatesToday() throws Exception {
+        mDispatcher.setCaching(true);
+        File cacheDir = mTemporaryFolder.newFolder();
+
+        List<Photo> first = getPhotosInNewSession(cacheDir, 0);
+        List<Photo> second = getPhotosInNewSession(cacheDir, 0);
+
+        assertEquals(2, mServer.getRequestCount());
+        assertNull(mServer.takeRequest().getHeader("If-None-Match"));
+        assertNotNull(mServer.takeRequest().getHeader("If-None-Match"));
+        assertEquals(first.size(), second.size());
+        assertEquals(first.get(0).getTitle(), second.get(0).getTitle());
+    }
+
+    @Test
+    public void getPhotos_repeatSession_servesPastDaysFromCache() throws Exception {
+        mDispatcher.setCaching(true);
+        File cacheDir = mTemporaryFolder.newFolder();
+
+        List<Photo> first = getPhotosInNewSession(cacheDir, 1);
+        List<Photo> second = getPhotosInNewSession(cacheDir, 1);
+
+        // no round trip at all the second time
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(5, second.size());
+        assertEquals(first.get(4).getTitle(), second.get(4).getTitle());
+    }
+
+    private List<Photo> getPhotosInNewSession(File cacheDir, int daysAgo) throws Exception {
+        HttpClientProvider provider = new HttpClientProvider(cacheDir, 1024 * 1024, 5, 5);
+        PhotoRequester photoRequester = newPhotoRequester(provider.get(), null, null);
+
+        getPhotos(photoRequester, daysAgo, 5);
+        List<Photo> photos = mReceived.poll(5, TimeUnit.SECONDS);
+        assertNotNull(photos);
+
+        provider.get().cache().close();
+        return photos;
+    }
+
+    private void getPhotos(PhotoRequester photoRequester, int daysAgo, int n) {
+        photoRequester.getPhotos(photoRequester.getFirstDay() - daysAgo, n, new PhotoRequester.ResponseListener() {
+            @Override
+            public void receivedPhotos(List<Photo> photos) {
+                mReceived.add(photos);
+            }
+        });
+    }
+
+    private String daysAgo(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_YEAR, -days);
+        return mDateFormat.format(calendar.getTime());
+    }
+}
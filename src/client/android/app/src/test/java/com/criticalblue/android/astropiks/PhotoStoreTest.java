@@ -0,0 +1,84 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks photos survive in the on-disk store.
+ */
+public class PhotoStoreTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void get_readsBackStoredPhotoAfterReopen() throws Exception {
+        File file = mTemporaryFolder.newFile();
+        PhotoStore store = new PhotoStore(file);
+        store.put("2024-08-30", photo("2024-08-30"));
+        store.put("2024-08-29", null);
+        store.close();
+
+        PhotoStore reopened = new PhotoStore(file);
+        Photo photo = reopened.get("2024-08-30");
+
+        assertNotNull(photo);
+        assertEquals("Title 2024-08-30", photo.getTitle());
+        assertEquals("What happened on 2024-08-30.", photo.getDesc());
+        assertEquals("https://apod.nasa.gov/apod/image/2024-08-30.jpg", photo.getUrl());
+        assertEquals(ApodJsonReader.parseDate("2024-08-30"), photo.getDate());
+
+        // video days are remembered without a photo
+        assertTrue(reopened.contains("2024-08-29"));
+        assertNull(reopened.get("2024-08-29"));
+        assertFalse(reopened.contains("2024-08-28"));
+    }
+
+    @Test
+    public void put_keepsFirstEntryForDay() throws Exception {
+        PhotoStore store = new PhotoStore(mTemporaryFolder.newFile());
+        store.put("2024-08-30", photo("2024-08-30"));
+        Photo other = photo("2024-08-30");
+        other.setTitle("Other");
+        store.put("2024-08-30", other);
+
+        assertEquals("Title 2024-08-30", store.get("2024-08-30").getTitle());
+    }
+
+    @Test
+    public void open_dropsHalfWrittenEntry() throws Exception {
+        File file = mTemporaryFolder.newFile();
+        PhotoStore store = new PhotoStore(file);
+        store.put("2024-08-30", photo("2024-08-30"));
+        store.put("2024-08-29", photo("2024-08-29"));
+        store.close();
+
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.setLength(data.length() - 5);
+        }
+
+        PhotoStore reopened = new PhotoStore(file);
+        assertNotNull(reopened.get("2024-08-30"));
+        assertFalse(reopened.contains("2024-08-29"));
+
+        // and carries on appending after the last whole entry
+        reopened.put("2024-08-29", photo("2024-08-29"));
+        reopened.close();
+        assertNotNull(new PhotoStore(file).get("2024-08-29"));
+    }
+
+    static Photo photo(String date) {
+        Photo photo = new Photo(Photo.dayId(date));
+        photo.setTitle("Title " + date);
+        photo.setDesc("What happened on " + date + ".");
+        photo.setUrl("https://apod.nasa.gov/apod/image/" + date + ".jpg");
+        photo.setDate(ApodJsonReader.parseDate(date));
+        return photo;
+    }
+}
@@ -0,0 +1,105 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks retry backoff, budgets and the circuit breaker.
+ */
+public class RetryPolicyTest {
+
+    private ScheduledExecutorService mScheduler;
+
+    @Before
+    public void setUp() {
+        mScheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        mScheduler.shutdownNow();
+    }
+
+    @Test
+    public void backoffMillis_growsExponentiallyUpToMax() {
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 100, 1000, 3, 5, 1000);
+
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(retryPolicy.backoffMillis(0) <= 100);
+            assertTrue(retryPolicy.backoffMillis(2) <= 400);
+            assertTrue(retryPolicy.backoffMillis(10) <= 1000);
+            assertTrue(retryPolicy.backoffMillis(100) <= 1000);
+            assertTrue(retryPolicy.backoffMillis(100) >= 0);
+        }
+    }
+
+    @Test
+    public void backoffMillis_isJittered() {
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 1000, 1000, 3, 5, 1000);
+
+        long first = retryPolicy.backoffMillis(0);
+        boolean varies = false;
+        for (int i = 0; i < 100 && !varies; ++i) {
+            varies = retryPolicy.backoffMillis(0) != first;
+        }
+        assertTrue(varies);
+    }
+
+    @Test
+    public void retry_stopsWhenBudgetSpent() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 1, 1, 2, 100, 1000);
+        RetryPolicy.Budget budget = retryPolicy.newBudget();
+        CountDownLatch retried = new CountDownLatch(2);
+
+        assertTrue(retryPolicy.retry(budget, retried::countDown));
+        assertTrue(retryPolicy.retry(budget, retried::countDown));
+        assertFalse(retryPolicy.retry(budget, retried::countDown));
+        assertTrue(retried.await(5, TimeUnit.SECONDS));
+
+        // a new page gets a new budget
+        assertTrue(retryPolicy.retry(retryPolicy.newBudget(), () -> { }));
+    }
+
+    @Test
+    public void recordFailure_opensCircuitAfterFailuresInARow() {
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 1, 1, 3, 3, 60000);
+
+        retryPolicy.recordFailure();
+        retryPolicy.recordFailure();
+        retryPolicy.recordSuccess();
+        retryPolicy.recordFailure();
+        retryPolicy.recordFailure();
+        assertFalse(retryPolicy.isOpen());
+        assertTrue(retryPolicy.allowRequest());
+
+        retryPolicy.recordFailure();
+        assertTrue(retryPolicy.isOpen());
+        assertFalse(retryPolicy.allowRequest());
+        assertFalse(retryPolicy.retry(retryPolicy.newBudget(), () -> fail("retried while open")));
+    }
+
+    @Test
+    public void allowRequest_letsOneTrialThroughAfterOpenPeriod() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(mScheduler, 1, 1, 3, 1, 50);
+
+        retryPolicy.recordFailure();
+        assertFalse(retryPolicy.allowRequest());
+
+        Thread.sleep(100);
+        assertTrue(retryPolicy.allowRequest());
+        assertFalse(retryPolicy.allowRequest());
+
+        // the trial got through, requests resume
+        retryPolicy.recordSuccess();
+        assertFalse(retryPolicy.isOpen());
+        assertTrue(retryPolicy.allowRequest());
+    }
+}
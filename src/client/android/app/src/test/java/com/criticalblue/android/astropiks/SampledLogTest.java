@@ -0,0 +1,62 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks hot path logging is sampled, rate limited and hides the api key.
+ */
+public class SampledLogTest {
+
+    private static SampledLog newLog(int sampleEvery, long minIntervalMillis, final boolean debugEnabled) {
+        return new SampledLog(sampleEvery, minIntervalMillis) {
+            @Override
+            boolean isDebugEnabled() {
+                return debugEnabled;
+            }
+        };
+    }
+
+    @Test
+    public void isLoggable_samplesEvents() {
+        SampledLog log = newLog(10, 0, true);
+
+        int logged = 0;
+        for (int i = 0; i < 100; ++i) {
+            if (log.isLoggable()) {
+                ++logged;
+            }
+        }
+
+        assertEquals(10, logged);
+    }
+
+    @Test
+    public void isLoggable_isRateLimited() {
+        SampledLog log = newLog(1, 60000, true);
+
+        assertTrue(log.isLoggable());
+        for (int i = 0; i < 100; ++i) {
+            assertFalse(log.isLoggable());
+        }
+    }
+
+    @Test
+    public void isLoggable_whenDebugDisabled_isFalse() {
+        SampledLog log = newLog(1, 0, false);
+
+        for (int i = 0; i < 10; ++i) {
+            assertFalse(log.isLoggable());
+        }
+    }
+
+    @Test
+    public void redact_hidesApiKey() {
+        assertEquals("https://api.nasa.gov/planetary/apod?api_key=REDACTED&date=2017-06-01",
+                SampledLog.redact("https://api.nasa.gov/planetary/apod?api_key=s3cr3t&date=2017-06-01"));
+        assertEquals("https://apod.nasa.gov/apod/image/1706/a.jpg",
+                SampledLog.redact("https://apod.nasa.gov/apod/image/1706/a.jpg"));
+        assertNull(SampledLog.redact(null));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criticalblue.android.astropiks;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Measures reading recorded APOD responses into photos, as done for every
+ * page the photo requester receives: in JSON with the streaming reader and
+ * with the org.json reader it replaced, and in the compact encoding.
+ *
+ * Allocations per read are reported by the gc profiler. The size of each
+ * response, raw and gzipped as the proxy sends it, is printed on setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ApodParseBenchmark {
+
+    @Param({ "apod/single", "apod/range-30", "apod/range-365" })
+    public String response;
+
+    @Param({ "json", "orgjson", "cbor" })
+    public String reader;
+
+    private byte[] mBody;
+
+    @Setup
+    public void setUp() throws IOException {
+        mBody = ApodJsonReaderTest.bytes(response + (reader.equals("cbor") ? ".cbor" : ".json"));
+        System.out.printf("%n%s read with %s: %d B, %d B gzipped%n",
+                response, reader, mBody.length, gzippedLength(mBody));
+    }
+
+    @Benchmark
+    public List<Photo> readPhotos() throws IOException, JSONException {
+        if (reader.equals("orgjson")) {
+            return ApodJsonReaderTest.readWithOrgJson(mBody);
+        }
+
+        List<Photo> photos = new ArrayList<>();
+        Buffer source = new Buffer().write(mBody);
+        try {
+            if (reader.equals("cbor")) {
+                ApodCborReader.readPhotos(source, photos);
+            } else {
+                ApodJsonReader.readPhotos(source, photos);
+            }
+        } finally {
+            // hand the segments back to the pool, as closing a response body does
+            source.clear();
+        }
+        return photos;
+    }
+
+    private static long gzippedLength(byte[] body) throws IOException {
+        Buffer gzipped = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(gzipped))) {
+            sink.write(body);
+        }
+        return gzipped.size();
+    }
+}
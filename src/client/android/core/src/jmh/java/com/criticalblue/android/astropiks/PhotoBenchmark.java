@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criticalblue.android.astropiks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building a photo from the fields of an APOD day, and the date
+ * conversions it takes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhotoBenchmark {
+
+    public String date = "2024-08-31";
+    public int id = Photo.dayId(date);
+
+    @Benchmark
+    public Date parseDate() {
+        return ApodJsonReader.parseDate(date);
+    }
+
+    @Benchmark
+    public int dayId() {
+        return Photo.dayId(date);
+    }
+
+    @Benchmark
+    public String dayOf() {
+        return Photo.dayOf(id);
+    }
+
+    @Benchmark
+    public Photo newPhoto() {
+        // as the APOD reader does for each day
+        Photo photo = new Photo(Photo.dayId(date));
+        photo.setUrl("https://apod.nasa.gov/apod/image/2408/a.jpg");
+        photo.setTitle("title");
+        photo.setDesc("desc");
+        photo.setDate(ApodJsonReader.parseDate(date));
+        return photo;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.criticalblue.android.astropiks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures photo lookups by id, as done for every detail screen, in a
+ * collection of a few years of days.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PhotoManagerBenchmark {
+
+    private static final int FIRST_DAY = Photo.dayId("2024-08-31");
+
+    @Param({ "1000", "10000" })
+    public int size;
+
+    private PhotoManager mPhotoManager;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        List<Photo> photos = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            photos.add(new Photo(FIRST_DAY - i));
+        }
+
+        mPhotoManager = new PhotoManager();
+        mPhotoManager.addPhotos(photos);
+    }
+
+    @Benchmark
+    public Photo getPhoto() {
+        // walk the days so lookups do not all hit the same entry
+        mNext = (mNext + 1) % size;
+        return mPhotoManager.getPhoto(FIRST_DAY - mNext);
+    }
+
+    @Benchmark
+    public Photo getPhoto_missing() {
+        return mPhotoManager.getPhoto(FIRST_DAY + 1);
+    }
+}
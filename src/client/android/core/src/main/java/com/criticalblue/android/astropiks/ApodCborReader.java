@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.List;
+
+import okio.BufferedSource;
+
+/**
+ * Reads the compact APOD encoding of the proxy straight into photos.
+ *
+ * The body is CBOR (RFC 8949): an array of days, each a map from small
+ * integer keys to the only fields a photo needs, without video days. Keys
+ * are integers, so nothing but the field values is ever turned into
+ * objects; unknown keys are skipped in place. Keep the keys in step with
+ * apod-cbor.js in the proxy.
+ */
+final class ApodCborReader {
+
+    /** The media type of the compact encoding. */
+    static final String MEDIA_TYPE = "application/cbor";
+
+    private static final int DAY = 0;
+    private static final int TITLE = 1;
+    private static final int URL = 2;
+    private static final int EXPLANATION = 3;
+
+    private static final int MAJOR_UNSIGNED = 0;
+    private static final int MAJOR_NEGATIVE = 1;
+    private static final int MAJOR_BYTES = 2;
+    private static final int MAJOR_TEXT = 3;
+    private static final int MAJOR_ARRAY = 4;
+    private static final int MAJOR_MAP = 5;
+    private static final int MAJOR_TAG = 6;
+
+    private static final int INDEFINITE = 31;
+
+    private ApodCborReader() {
+    }
+
+    /**
+     * Reads a compact APOD response.
+     *
+     * Photos are added to the list in response order.
+     *
+     * @param source the response body source.
+     * @param photos the list receiving the photos.
+     * @throws IOException if the response is not the expected CBOR.
+     */
+    static void readPhotos(BufferedSource source, List<Photo> photos) throws IOException {
+        long days = readHead(source, MAJOR_ARRAY);
+        for (long i = 0; i < days; ++i) {
+            readEntry(source, photos);
+        }
+    }
+
+    private static void readEntry(BufferedSource source, List<Photo> photos) throws IOException {
+        long day = -1;
+        String title = null;
+        String url = null;
+        String desc = null;
+
+        long fields = readHead(source, MAJOR_MAP);
+        for (long i = 0; i < fields; ++i) {
+            int initial = source.readByte() & 0xff;
+            if (initial >>> 5 != MAJOR_UNSIGNED) {
+                skipItem(source, initial);
+                skipItem(source, source.readByte() & 0xff);
+                continue;
+            }
+
+            long key = readArgument(source, initial);
+            if (key == DAY) {
+                day = readHead(source, MAJOR_UNSIGNED);
+            } else if (key == TITLE) {
+                title = readText(source);
+            } else if (key == URL) {
+                url = readText(source);
+            } else if (key == EXPLANATION) {
+                desc = readText(source);
+            } else {
+                skipItem(source, source.readByte() & 0xff);
+            }
+        }
+
+        Photo photo = day >= 0 && day <= Integer.MAX_VALUE ? new Photo((int) day) : new Photo();
+        photo.setUrl(url);
+        photo.setTitle(title);
+        photo.setDesc(desc);
+        photo.setDate(day >= 0 ? dateOf(day) : null);
+        photos.add(photo);
+    }
+
+    /**
+     * Returns the start of an epoch day, in the default time zone, as an
+     * APOD date is parsed.
+     *
+     * @param day the epoch day.
+     * @return the date.
+     */
+    static Date dateOf(long day) {
+        return new Date(LocalDate.ofEpochDay(day).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+    }
+
+    private static String readText(BufferedSource source) throws IOException {
+        return source.readUtf8(readHead(source, MAJOR_TEXT));
+    }
+
+    private static long readHead(BufferedSource source, int major) throws IOException {
+        int initial = source.readByte() & 0xff;
+        if (initial >>> 5 != major) {
+            throw new ProtocolException("Expected CBOR major type " + major + " but was " + (initial >>> 5));
+        }
+        return readArgument(source, initial);
+    }
+
+    private static long readArgument(BufferedSource source, int initial) throws IOException {
+        int info = initial & 0x1f;
+        if (info < 24) {
+            return info;
+        }
+        switch (info) {
+            case 24:
+                return source.readByte() & 0xffL;
+            case 25:
+                return source.readShort() & 0xffffL;
+            case 26:
+                return source.readInt() & 0xffffffffL;
+            case 27:
+                long value = source.readLong();
+                if (value < 0) {
+                    throw new ProtocolException("CBOR argument too large");
+                }
+                return value;
+            default:
+                throw new ProtocolException("Unsupported CBOR argument " + info);
+        }
+    }
+
+    private static void skipItem(BufferedSource source, int initial) throws IOException {
+        int major = initial >>> 5;
+        if ((initial & 0x1f) == INDEFINITE) {
+            throw new ProtocolException("Unsupported indefinite length CBOR item");
+        }
+
+        long argument = readArgument(source, initial);
+        switch (major) {
+            case MAJOR_UNSIGNED:
+            case MAJOR_NEGATIVE:
+                break;
+            case MAJOR_BYTES:
+            case MAJOR_TEXT:
+                source.skip(argument);
+                break;
+            case MAJOR_ARRAY:
+                for (long i = 0; i < argument; ++i) {
+                    skipItem(source, source.readByte() & 0xff);
+                }
+                break;
+            case MAJOR_MAP:
+                for (long i = 0; i < 2 * argument; ++i) {
+                    skipItem(source, source.readByte() & 0xff);
+                }
+                break;
+            case MAJOR_TAG:
+                skipItem(source, source.readByte() & 0xff);
+                break;
+            default:
+                // simple values and floats, their argument was all of them
+                break;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import com.squareup.moshi.JsonReader;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.List;
+
+import okio.BufferedSource;
+
+/**
+ * Reads APOD responses straight into photos.
+ *
+ * The body is pulled token by token from the response source, so only the
+ * fields a photo needs are ever turned into strings and everything else is
+ * skipped in place.
+ */
+final class ApodJsonReader {
+
+    /**
+     * Thrown when the APOD response is an error object, likely a rate limit error.
+     */
+    static final class ApodErrorException extends IOException {
+        private final String mCode;
+
+        ApodErrorException(String code, String message) {
+            super(message);
+            mCode = code;
+        }
+
+        /**
+         * Returns the APOD error code.
+         *
+         * @return the error code.
+         */
+        String getCode() {
+            return mCode;
+        }
+    }
+
+    private static final String MEDIA_TYPE_VIDEO_VALUE = "video";
+
+    private static final JsonReader.Options ENTRY_NAMES =
+            JsonReader.Options.of("date", "explanation", "media_type", "title", "url", "error");
+    private static final int DATE = 0;
+    private static final int EXPLANATION = 1;
+    private static final int MEDIA_TYPE = 2;
+    private static final int TITLE = 3;
+    private static final int URL = 4;
+    private static final int ERROR = 5;
+
+    private static final JsonReader.Options ERROR_NAMES = JsonReader.Options.of("code", "message");
+    private static final int ERROR_CODE = 0;
+    private static final int ERROR_MESSAGE = 1;
+
+    private ApodJsonReader() {
+    }
+
+    /**
+     * Reads an APOD response, either a single day object or an array of days.
+     *
+     * Photos are added to the list in response order; video days are skipped.
+     *
+     * @param source the response body source.
+     * @param photos the list receiving the photos.
+     * @throws ApodErrorException if the response is an APOD error object.
+     * @throws IOException if the response is not the expected JSON.
+     */
+    static void readPhotos(BufferedSource source, List<Photo> photos) throws IOException {
+        JsonReader reader = JsonReader.of(source);
+
+        if (reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                readEntry(reader, photos);
+            }
+            reader.endArray();
+        } else {
+            readEntry(reader, photos);
+        }
+    }
+
+    private static void readEntry(JsonReader reader, List<Photo> photos) throws IOException {
+        String date = null;
+        String desc = null;
+        String title = null;
+        String url = null;
+        boolean isVideo = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.selectName(ENTRY_NAMES)) {
+                case DATE:
+                    date = reader.nextString();
+                    break;
+                case EXPLANATION:
+                    desc = reader.nextString();
+                    break;
+                case MEDIA_TYPE:
+                    isVideo = MEDIA_TYPE_VIDEO_VALUE.equals(reader.nextString());
+                    break;
+                case TITLE:
+                    title = reader.nextString();
+                    break;
+                case URL:
+                    url = reader.nextString();
+                    break;
+                case ERROR:
+                    throw readError(reader);
+                default:
+                    reader.skipName();
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if (!isVideo) {
+            Photo photo = newPhoto(date);
+            photo.setUrl(url);
+            photo.setTitle(title);
+            photo.setDesc(desc);
+            photo.setDate(parseDate(date));
+            photos.add(photo);
+        }
+    }
+
+    private static Photo newPhoto(String date) {
+        if (date != null) {
+            try {
+                return new Photo(Photo.dayId(date));
+            } catch (DateTimeParseException e) {
+                e.printStackTrace();
+            }
+        }
+
+        // no usable day, keep it as a placeholder
+        return new Photo();
+    }
+
+    private static ApodErrorException readError(JsonReader reader) throws IOException {
+        String code = null;
+        String message = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.selectName(ERROR_NAMES)) {
+                case ERROR_CODE:
+                    code = reader.nextString();
+                    break;
+                case ERROR_MESSAGE:
+                    message = reader.nextString();
+                    break;
+                default:
+                    reader.skipName();
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return new ApodErrorException(code, message);
+    }
+
+    /**
+     * Parses an APOD date.
+     *
+     * @param date the date, as yyyy-MM-dd.
+     * @return the date, or null if missing or malformed.
+     */
+    static Date parseDate(String date) {
+      if (date == null) {
+        return null;
+      }
+
+      SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+      try {
+        return dateFormat.parse(date);
+      } catch (ParseException e) {
+        e.printStackTrace();
+      }
+      return null;
+    }
+}
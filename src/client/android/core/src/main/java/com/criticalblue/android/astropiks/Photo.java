@@ -16,37 +16,85 @@
 
 package com.criticalblue.android.astropiks;
 
+import java.time.LocalDate;
 import java.util.Date;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Holds properties for a picture of the day.
+ *
+ * A photo for an APOD day is identified by its epoch day, which is stable
+ * across process restarts. Placeholders, such as error photos, get negative
+ * identifiers from a per-process sequence instead.
  */
 public class Photo {
 
-    private final UUID mId;
+    private static final AtomicInteger sLastPlaceholderId = new AtomicInteger();
+
+    private final int mId;
     private Date mDate;
     private String mTitle;
     private String mDesc;
     private String mUrl;
 
+    /**
+     * Creates a placeholder photo.
+     */
     public Photo() {
-        mId = UUID.randomUUID();
+        this(sLastPlaceholderId.decrementAndGet());
+    }
+
+    /**
+     * Creates a photo with a given identifier.
+     *
+     * @param id the identifier, see {@link #dayId(String)}.
+     */
+    public Photo(int id) {
+        mId = id;
         mDate = null;
         mTitle = null;
         mDesc = null;
         mUrl = null;
     }
 
+    /**
+     * Returns the identifier of the photo for an APOD day.
+     *
+     * @param date the day, as yyyy-MM-dd.
+     * @return the epoch day.
+     */
+    public static int dayId(String date) {
+        return (int) LocalDate.parse(date).toEpochDay();
+    }
+
+    /**
+     * Returns the APOD day of a photo identifier.
+     *
+     * @param id the identifier of a photo for an APOD day.
+     * @return the day, as yyyy-MM-dd.
+     */
+    public static String dayOf(int id) {
+        return LocalDate.ofEpochDay(id).toString();
+    }
+
     /**
      * Returns the unique identifier associated with this photo.
      *
-     * @return the UUID.
+     * @return the epoch day, or a negative number for a placeholder.
      */
-    public UUID getId() {
+    public int getId() {
         return mId;
     }
 
+    /**
+     * Tells whether this photo is a placeholder rather than an APOD day.
+     *
+     * @return true for a placeholder.
+     */
+    public boolean isPlaceholder() {
+        return mId < 0;
+    }
+
     /**
      * Sets the date for this photo.
      *
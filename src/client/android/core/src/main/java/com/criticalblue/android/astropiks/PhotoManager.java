@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2016 Razeware LLC
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.criticalblue.android.astropiks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Manages the photo collection (singleton).
+ *
+ * Each photo is placed in its date slot, newest day first, whatever order
+ * the pages arrive in; a day already in the collection is not added again.
+ * Placeholders sort after every photo. Photos may be added from any thread
+ * and are indexed by id for constant time lookup.
+ */
+class PhotoManager {
+    private static PhotoManager sPhotoManager;
+
+    private final List<Photo> mPhotos;
+    private final Map<Integer, Photo> mPhotosById;
+
+    public static synchronized PhotoManager get() {
+        if (sPhotoManager == null) {
+            sPhotoManager = new PhotoManager();
+        }
+        return sPhotoManager;
+    }
+
+    PhotoManager() {
+        mPhotos = new ArrayList<>();
+        mPhotosById = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds photos to the collection, each in its date slot.
+     *
+     * @param photos the photos.
+     * @return the new # of photos.
+     */
+    public synchronized int addPhotos(List<Photo> photos) {
+        for (Photo photo : photos) {
+            if (mPhotosById.putIfAbsent(photo.getId(), photo) == null) {
+                mPhotos.add(slotOf(photo.getId()), photo);
+            }
+        }
+        return mPhotos.size();
+    }
+
+    private int slotOf(int id) {
+        // pages mostly arrive in order, so appending is the usual case
+        int size = mPhotos.size();
+        if (size == 0 || mPhotos.get(size - 1).getId() > id) {
+            return size;
+        }
+
+        // ids are epoch days, kept in descending order
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (mPhotos.get(mid).getId() > id) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the # of photos in the collection.
+     *
+     * @return the # of photos.
+     */
+    public synchronized int size() {
+        return mPhotos.size();
+    }
+
+    /**
+     * Returns the photo at a position.
+     *
+     * @param position the position, below the current size.
+     * @return the photo.
+     */
+    public synchronized Photo getPhotoAt(int position) {
+        return mPhotos.get(position);
+    }
+
+    /**
+     * Returns a snapshot of the collection.
+     *
+     * @return a copy of the photos, in order.
+     */
+    public synchronized List<Photo> getPhotos() {
+        return new ArrayList<>(mPhotos);
+    }
+
+    public Photo getPhoto(int id) {
+        return mPhotosById.get(id);
+    }
+}
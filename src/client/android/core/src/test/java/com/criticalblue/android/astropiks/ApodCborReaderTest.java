@@ -0,0 +1,99 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the compact APOD reader against the same days read from JSON.
+ */
+public class ApodCborReaderTest {
+
+    @Test
+    public void readPhotos_readsSingleDay() throws Exception {
+        List<Photo> photos = new ArrayList<>();
+        ApodCborReader.readPhotos(ApodJsonReaderTest.resource("apod/single.cbor"), photos);
+
+        assertEquals(1, photos.size());
+        assertEquals(Photo.dayId("2024-08-31"), photos.get(0).getId());
+        assertEquals(ApodJsonReader.parseDate("2024-08-31"), photos.get(0).getDate());
+    }
+
+    @Test
+    public void readPhotos_matchesJson() throws Exception {
+        assertMatchesJson("apod/range-30");
+        assertMatchesJson("apod/range-365");
+    }
+
+    @Test
+    public void compactEncoding_isSmallerThanJson() throws Exception {
+        for (String name : new String[] { "apod/range-30", "apod/range-365" }) {
+            assertTrue(name, ApodJsonReaderTest.bytes(name + ".cbor").length
+                    < ApodJsonReaderTest.bytes(name + ".json").length);
+        }
+    }
+
+    @Test
+    public void readPhotos_skipsUnknownFields() throws Exception {
+        // [{0: 19966, 9: [1.5, "x", {-1: h'00'}], "k": true, 1: "Title"}]
+        Buffer body = new Buffer().write(ByteString.decodeHex(
+                "81a4" + "00194dfe" + "0983f93e006178a1204100" + "616bf5" + "01655469746c65"));
+        List<Photo> photos = new ArrayList<>();
+        ApodCborReader.readPhotos(body, photos);
+
+        assertEquals(1, photos.size());
+        assertEquals(19966, photos.get(0).getId());
+        assertEquals("Title", photos.get(0).getTitle());
+        assertNull(photos.get(0).getUrl());
+    }
+
+    @Test
+    public void readPhotos_keepsDaylessEntryAsPlaceholder() throws Exception {
+        List<Photo> photos = new ArrayList<>();
+        ApodCborReader.readPhotos(new Buffer().write(ByteString.decodeHex("81a1016154")), photos);
+
+        assertEquals(1, photos.size());
+        assertTrue(photos.get(0).getId() < 0);
+        assertNull(photos.get(0).getDate());
+        assertEquals("T", photos.get(0).getTitle());
+    }
+
+    @Test(expected = IOException.class)
+    public void readPhotos_throwsOnJsonBody() throws Exception {
+        ApodCborReader.readPhotos(ApodJsonReaderTest.resource("apod/range-30.json"), new ArrayList<>());
+    }
+
+    @Test(expected = IOException.class)
+    public void readPhotos_throwsOnTruncatedBody() throws Exception {
+        byte[] body = ApodJsonReaderTest.bytes("apod/range-30.cbor");
+        ApodCborReader.readPhotos(new Buffer().write(body, 0, body.length / 2), new ArrayList<>());
+    }
+
+    @Test(expected = IOException.class)
+    public void readPhotos_throwsOnIndefiniteLength() throws Exception {
+        ApodCborReader.readPhotos(new Buffer().write(ByteString.decodeHex("81a1097f6161ff")), new ArrayList<>());
+    }
+
+    private static void assertMatchesJson(String name) throws Exception {
+        List<Photo> expected = new ArrayList<>();
+        ApodJsonReader.readPhotos(ApodJsonReaderTest.resource(name + ".json"), expected);
+        List<Photo> photos = new ArrayList<>();
+        ApodCborReader.readPhotos(ApodJsonReaderTest.resource(name + ".cbor"), photos);
+
+        assertEquals(expected.size(), photos.size());
+        for (int i = 0; i < photos.size(); ++i) {
+            assertEquals(expected.get(i).getId(), photos.get(i).getId());
+            assertEquals(expected.get(i).getDate(), photos.get(i).getDate());
+            assertEquals(expected.get(i).getTitle(), photos.get(i).getTitle());
+            assertEquals(expected.get(i).getDesc(), photos.get(i).getDesc());
+            assertEquals(expected.get(i).getUrl(), photos.get(i).getUrl());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.criticalblue.android.astropiks;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the streaming APOD reader against sample APOD payloads.
+ */
+public class ApodJsonReaderTest {
+
+    @Test
+    public void readPhotos_readsSingleDay() throws Exception {
+        List<Photo> photos = new ArrayList<>();
+        ApodJsonReader.readPhotos(resource("apod/single.json"), photos);
+
+        assertEquals(1, photos.size());
+        Photo photo = photos.get(0);
+        assertNotNull(photo.getTitle());
+        assertNotNull(photo.getDesc());
+        assertTrue(photo.getUrl().startsWith("https://apod.nasa.gov/apod/image/"));
+        assertEquals(ApodJsonReader.parseDate("2024-08-31"), photo.getDate());
+    }
+
+    @Test
+    public void readPhotos_readsRangeWithoutVideos() throws Exception {
+        List<Photo> photos = new ArrayList<>();
+        ApodJsonReader.readPhotos(resource("apod/range-30.json"), photos);
+
+        // the sample window holds two video days
+        assertEquals(28, photos.size());
+        assertEquals(ApodJsonReader.parseDate("2024-08-02"), photos.get(0).getDate());
+        assertEquals(ApodJsonReader.parseDate("2024-08-31"), photos.get(27).getDate());
+    }
+
+    @Test
+    public void readPhotos_matchesOrgJson() throws Exception {
+        List<Photo> expected = readWithOrgJson(bytes("apod/range-30.json"));
+        List<Photo> photos = new ArrayList<>();
+        ApodJsonReader.readPhotos(resource("apod/range-30.json"), photos);
+
+        assertEquals(expected.size(), photos.size());
+        for (int i = 0; i < photos.size(); ++i) {
+            assertEquals(expected.get(i).getDate(), photos.get(i).getDate());
+            assertEquals(expected.get(i).getTitle(), photos.get(i).getTitle());
+            assertEquals(expected.get(i).getDesc(), photos.get(i).getDesc());
+            assertEquals(expected.get(i).getUrl(), photos.get(i).getUrl());
+        }
+    }
+
+    @Test
+    public void readPhotos_throwsOnApodError() throws Exception {
+        Buffer body = new Buffer().writeUtf8(
+                "{\"error\":{\"code\":\"OVER_RATE_LIMIT\",\"message\":\"You have exceeded your rate limit.\"}}");
+
+        try {
+            ApodJsonReader.readPhotos(body, new ArrayList<>());
+            fail("expected an APOD error");
+        } catch (ApodJsonReader.ApodErrorException e) {
+            assertEquals("OVER_RATE_LIMIT", e.getCode());
+            assertEquals("You have exceeded your rate limit.", e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void readPhotos_throwsOnMalformedBody() throws Exception {
+        ApodJsonReader.readPhotos(new Buffer().writeUtf8("<html>Bad Gateway</html>"), new ArrayList<>());
+    }
+
+    static BufferedSource resource(String name) {
+        InputStream stream = ApodJsonReaderTest.class.getClassLoader().getResourceAsStream(name);
+        return Okio.buffer(Okio.source(stream));
+    }
+
+    static byte[] bytes(String name) throws IOException {
+        try (BufferedSource source = resource(name)) {
+            return source.readByteArray();
+        }
+    }
+
+    /**
+     * Reads a payload the way PhotoRequester did before the streaming reader.
+     */
+    static List<Photo> readWithOrgJson(byte[] body) throws JSONException {
+        String json = new String(body, StandardCharsets.UTF_8);
+        List<Photo> photos = new ArrayList<>();
+
+        JSONArray photosJSON = json.trim().startsWith("[")
+                ? new JSONArray(json)
+                : new JSONArray().put(new JSONObject(json));
+
+        for (int i = 0; i < photosJSON.length(); ++i) {
+            JSONObject photoJSON = photosJSON.getJSONObject(i);
+            if (!photoJSON.getString("media_type").equals("video")) {
+                Photo photo = new Photo();
+                photo.setUrl(photoJSON.getString("url"));
+                photo.setTitle(photoJSON.getString("title"));
+                photo.setDesc(photoJSON.getString("explanation"));
+                photo.setDate(ApodJsonReader.parseDate(photoJSON.getString("date")));
+                photos.add(photo);
+            }
+        }
+
+        return photos;
+    }
+}
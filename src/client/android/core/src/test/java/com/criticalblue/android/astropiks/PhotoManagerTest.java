@@ -0,0 +1,150 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the photo collection index and its behaviour under concurrent appends.
+ */
+public class PhotoManagerTest {
+
+    private static final int[] SIZES = { 1_000, 10_000, 50_000 };
+    private static final int LOOKUPS = 200_000;
+
+    @Test
+    public void getPhoto_findsEveryPhotoById() {
+        PhotoManager photoManager = new PhotoManager();
+        List<Photo> photos = newPhotos(100);
+        photoManager.addPhotos(photos);
+
+        for (Photo photo : photos) {
+            assertSame(photo, photoManager.getPhoto(photo.getId()));
+        }
+        assertNull(photoManager.getPhoto(new Photo().getId()));
+    }
+
+    @Test
+    public void addPhotos_placesPhotosInDateSlots() {
+        PhotoManager photoManager = new PhotoManager();
+        Photo placeholder = new Photo();
+
+        photoManager.addPhotos(days(100, 96));
+        photoManager.addPhotos(Collections.singletonList(placeholder));
+        photoManager.addPhotos(days(90, 86));
+        photoManager.addPhotos(days(95, 91));
+
+        List<Photo> photos = photoManager.getPhotos();
+        assertEquals(16, photos.size());
+        for (int i = 0; i < 15; ++i) {
+            assertEquals(100 - i, photos.get(i).getId());
+        }
+        assertSame(placeholder, photos.get(15));
+    }
+
+    @Test
+    public void addPhotos_skipsDaysAlreadyAdded() {
+        PhotoManager photoManager = new PhotoManager();
+        List<Photo> first = days(100, 91);
+
+        photoManager.addPhotos(first);
+        int size = photoManager.addPhotos(days(95, 86));
+
+        assertEquals(15, size);
+        assertSame(first.get(5), photoManager.getPhoto(95));
+        assertSame(first.get(5), photoManager.getPhotoAt(5));
+    }
+
+    @Test
+    public void addPhotos_keepsBatchesWholeUnderConcurrentAppends() throws Exception {
+        final PhotoManager photoManager = new PhotoManager();
+        final int threads = 8;
+        final int batches = 100;
+        final int batchSize = 10;
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        for (int t = 0; t < threads; ++t) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int b = 0; b < batches; ++b) {
+                    photoManager.addPhotos(newPhotos(batchSize));
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * batches * batchSize, photoManager.size());
+        Set<Photo> seen = new HashSet<>(photoManager.getPhotos());
+        assertEquals(photoManager.size(), seen.size());
+        for (int i = 0; i < photoManager.size(); ++i) {
+            Photo photo = photoManager.getPhotoAt(i);
+            assertSame(photo, photoManager.getPhoto(photo.getId()));
+        }
+    }
+
+    @Test
+    public void getPhoto_lookupCostStaysFlatAsCollectionGrows() {
+        long[] nanosPerLookup = new long[SIZES.length];
+
+        for (int s = 0; s < SIZES.length; ++s) {
+            PhotoManager photoManager = new PhotoManager();
+            List<Photo> photos = newPhotos(SIZES[s]);
+            photoManager.addPhotos(photos);
+
+            // look up a shuffled sample so the cost is not the last element's
+            List<Photo> sample = new ArrayList<>(photos);
+            Collections.shuffle(sample);
+            sample = sample.subList(0, 1000);
+
+            lookup(photoManager, sample, LOOKUPS);
+            long before = System.nanoTime();
+            lookup(photoManager, sample, LOOKUPS);
+            nanosPerLookup[s] = (System.nanoTime() - before) / LOOKUPS;
+
+            System.out.printf("%7d photos %5d ns/lookup%n", SIZES[s], nanosPerLookup[s]);
+        }
+
+        // a linear scan would be ~50x slower at the largest size
+        assertTrue(nanosPerLookup[SIZES.length - 1] <= Math.max(1, nanosPerLookup[0]) * 10);
+    }
+
+    private static void lookup(PhotoManager photoManager, List<Photo> sample, int n) {
+        for (int i = 0; i < n; ++i) {
+            Photo photo = sample.get(i % sample.size());
+            assertSame(photo, photoManager.getPhoto(photo.getId()));
+        }
+    }
+
+    private static List<Photo> days(int newest, int oldest) {
+        List<Photo> photos = new ArrayList<>();
+        for (int day = newest; day >= oldest; --day) {
+            photos.add(new Photo(day));
+        }
+        return photos;
+    }
+
+    private static List<Photo> newPhotos(int n) {
+        List<Photo> photos = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) {
+            photos.add(new Photo());
+        }
+        return photos;
+    }
+}
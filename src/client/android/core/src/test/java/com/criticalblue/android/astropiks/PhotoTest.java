@@ -0,0 +1,87 @@
+package com.criticalblue.android.astropiks;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks photo identifiers are stable for APOD days and cheap to create.
+ */
+public class PhotoTest {
+
+    private static final int INSTANCES = 100_000;
+
+    @Test
+    public void dayId_isStableForADay() {
+        // the first APOD day, whatever the process or time zone
+        assertEquals(9297, Photo.dayId("1995-06-16"));
+        assertEquals(Photo.dayId("2024-08-31"), new Photo(Photo.dayId("2024-08-31")).getId());
+        assertEquals("2024-08-31", Photo.dayOf(Photo.dayId("2024-08-31")));
+        assertEquals(1, Photo.dayId("2024-09-01") - Photo.dayId("2024-08-31"));
+    }
+
+    @Test
+    public void placeholders_neverCollideWithDays() {
+        Set<Integer> ids = new HashSet<>();
+        for (int i = 0; i < 1000; ++i) {
+            Photo photo = new Photo();
+            assertTrue(photo.isPlaceholder());
+            assertTrue(ids.add(photo.getId()));
+        }
+        assertFalse(new Photo(Photo.dayId("1995-06-16")).isPlaceholder());
+    }
+
+    @Test
+    public void constructor_allocatesLessThanARandomUuid() {
+        Photo[] photos = new Photo[INSTANCES];
+        UUID[] uuids = new UUID[INSTANCES];
+
+        // warm up both paths first
+        createPhotos(photos);
+        createUuids(uuids);
+
+        long before = allocatedBytes();
+        long time = System.nanoTime();
+        createPhotos(photos);
+        long photoNanos = (System.nanoTime() - time) / INSTANCES;
+        long photoBytes = (allocatedBytes() - before) / INSTANCES;
+
+        before = allocatedBytes();
+        time = System.nanoTime();
+        createUuids(uuids);
+        long uuidNanos = (System.nanoTime() - time) / INSTANCES;
+        long uuidBytes = (allocatedBytes() - before) / INSTANCES;
+
+        System.out.printf("new Photo(day)    %5d ns %4d B%n", photoNanos, photoBytes);
+        System.out.printf("UUID.randomUUID() %5d ns %4d B%n", uuidNanos, uuidBytes);
+
+        if (uuidBytes > 0) {
+            assertTrue(photoBytes < uuidBytes);
+        }
+    }
+
+    private static void createPhotos(Photo[] photos) {
+        for (int i = 0; i < photos.length; ++i) {
+            photos[i] = new Photo(9297 + i);
+        }
+    }
+
+    private static void createUuids(UUID[] uuids) {
+        for (int i = 0; i < uuids.length; ++i) {
+            uuids[i] = UUID.randomUUID();
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
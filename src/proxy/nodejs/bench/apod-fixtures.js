@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Writes the APOD fixtures of the Android client's parser tests and
+// benchmarks, in core/src/test/resources/apod:
+//
+// - range-365.json, a year of days made by cycling the entries of the
+//   recorded range-30.json, so it has real sized fields;
+// - a .cbor file for every .json file, in the compact encoding the proxy
+//   serves, made with apod-cbor.js, so the client reads what the proxy sends.
+//
+// Run it again after changing the compact encoding:
+//
+//   npm run fixtures:apod [-- fixtures-dir]
+
+const fs = require('fs')
+const path = require('path')
+const { encodeApod } = require('../src/apod-cbor')
+
+const defaultDir = path.join(__dirname, '..', '..', '..', 'client', 'android', 'core', 'src', 'test', 'resources', 'apod')
+
+// the last day of the synthesized year
+const yearEnd = Date.UTC(2024, 7, 31)
+const dayMillis = 24 * 60 * 60 * 1000
+
+function writeYear(dir) {
+  let month = JSON.parse(fs.readFileSync(path.join(dir, 'range-30.json')))
+  let days = []
+  for (let i = 0; i < 365; i++) {
+    let date = new Date(yearEnd - (364 - i) * dayMillis).toISOString().slice(0, 10)
+    days.push(Object.assign({}, month[i % month.length], { date: date }))
+  }
+  fs.writeFileSync(path.join(dir, 'range-365.json'), JSON.stringify(days, null, 2) + '\n')
+}
+
+function main(dir) {
+  writeYear(dir)
+
+  fs.readdirSync(dir).filter((name) => name.endsWith('.json')).sort().forEach((name) => {
+    let json = fs.readFileSync(path.join(dir, name))
+    let cbor = encodeApod(JSON.parse(json))
+    let cborName = name.replace(/\.json$/, '.cbor')
+    fs.writeFileSync(path.join(dir, cborName), cbor)
+    console.log(`${cborName.padEnd(16)} ${String(cbor.length).padStart(8)} bytes, from ${json.length} bytes of JSON`)
+  })
+}
+
+main(process.argv[2] || defaultDir)
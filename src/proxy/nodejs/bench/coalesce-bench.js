@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Sends bursts of concurrent identical requests through the proxy, to a
+// local fake NASA API and image host with a fixed latency, and counts the
+// upstream requests each burst made.
+//
+// Every burst asks for a day and an image not asked for before, so it
+// starts with a cold cache; the requests arriving while the first one is
+// upstream share its response. A last burst repeats a day, served from
+// the cache:
+//
+//   npm run bench:coalesce [-- latency-ms [clients...]]
+
+const { makeTestDir, startUpstream, startProxy } = require('../test/proxy-harness')
+const fs = require('fs')
+
+const image = Buffer.alloc(256 * 1024, 7)
+
+function entryOf(date) {
+  return JSON.stringify({
+    date: date,
+    explanation: ('The picture of the day ' + date + ' shows a galaxy far away. ').repeat(16),
+    media_type: 'image',
+    title: 'Picture of ' + date,
+    url: 'https://apod.nasa.gov/apod/image/' + date + '/image.jpg',
+  })
+}
+
+function dateOf(i) {
+  return new Date(Date.UTC(2000, 0, 1) + i * 86400000).toISOString().slice(0, 10)
+}
+
+// sends the requests at once, returns the latencies of the successful ones
+async function burst(proxy, urlPath, clients) {
+  let latencies = await Promise.all(Array.from({ length: clients }, async () => {
+    let start = process.hrtime.bigint()
+    let res = await proxy.get(urlPath)
+    return res.statusCode === 200 ? Number(process.hrtime.bigint() - start) / 1e6 : NaN
+  }))
+  return latencies.sort((a, b) => a - b)
+}
+
+async function main(latencyMillis, clientsList) {
+  let dir = makeTestDir()
+  let api = await startUpstream(dir, (req, res) => {
+    let date = new URL(req.url, 'https://localhost').searchParams.get('date')
+    setTimeout(() => {
+      res.writeHead(200, { 'content-type': 'application/json' })
+      res.end(entryOf(date))
+    }, latencyMillis)
+  })
+  let images = await startUpstream(dir, (req, res) => {
+    setTimeout(() => {
+      res.writeHead(200, { 'content-type': 'image/jpeg', 'content-length': image.length })
+      res.end(image)
+    }, latencyMillis)
+  }, '127.0.0.1')
+  let proxy = await startProxy(dir, {
+    NASA_API_HOST: api.host,
+    NASA_IMAGE_HOST: images.host,
+    STATS_ENABLED: true,
+  })
+
+  console.log(`upstream latency ${latencyMillis} ms`)
+  console.log('request  cache  clients  upstream requests   p50 ms   max ms  failed')
+
+  let day = 0
+  let run = async (kind, cache, clients, urlPath) => {
+    let upstream = kind === 'image' ? images : api
+    let requests = upstream.requests.length
+    let latencies = await burst(proxy, urlPath, clients)
+    let ok = latencies.filter((latency) => !isNaN(latency))
+    console.log([
+      kind.padEnd(8),
+      cache.padEnd(6),
+      String(clients).padStart(7),
+      String(upstream.requests.length - requests).padStart(18),
+      ok[Math.floor(ok.length / 2)].toFixed(1).padStart(8),
+      ok[ok.length - 1].toFixed(1).padStart(8),
+      String(clients - ok.length).padStart(7),
+    ].join(' '))
+  }
+
+  for (let clients of clientsList) {
+    await run('apod', 'cold', clients, '/v1/' + api.host + '/planetary/apod?date=' + dateOf(day++))
+  }
+  for (let clients of clientsList) {
+    await run('image', 'cold', clients, '/v1/' + images.host + '/apod/image/' + dateOf(day++) + '/image.jpg')
+  }
+  await run('apod', 'warm', clientsList[clientsList.length - 1], '/v1/' + api.host + '/planetary/apod?date=' + dateOf(0))
+
+  let stats = JSON.parse((await proxy.get('/stats')).body)
+  console.log(`apod cache: ${stats.api.misses} misses, ${stats.api.coalesced} coalesced, ${stats.api.hits} hits, hit ratio ${stats.api.hitRatio.toFixed(3)}`)
+  console.log(`image cache: ${stats.images.misses} misses, ${stats.images.coalesced} coalesced, ${stats.images.hits} hits, hit ratio ${stats.images.hitRatio.toFixed(3)}`)
+
+  await proxy.stop()
+  await api.close()
+  await images.close()
+  fs.rmSync(dir, { recursive: true, force: true })
+}
+
+let latencyMillis = parseInt(process.argv[2] || '100', 10)
+let clientsList = process.argv.slice(3).map((clients) => parseInt(clients, 10))
+main(latencyMillis, clientsList.length > 0 ? clientsList : [1, 16, 64, 256])
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Load tests the proxy against a local fake NASA API over TLS, with 1, 2
+// and 4 workers, with and without keep-alive upstream connections.
+//
+// The response caches are turned off, so every request goes upstream. The
+// fake upstream runs in its own process and counts the TLS connections the
+// proxy opens. A self-signed certificate is made with openssl:
+//
+//   npm run bench:load [-- seconds [workers...]]
+
+const { execFileSync, fork, spawn } = require('child_process')
+const fs = require('fs')
+const http = require('http')
+const https = require('https')
+const os = require('os')
+const path = require('path')
+
+const proxyPort = 18080
+const upstreamPort = 18443
+const concurrency = 64
+const warmupSeconds = 2
+
+// one APOD entry, as the API answers for a single day
+function entryOf(date) {
+  return JSON.stringify({
+    copyright: 'Someone',
+    date: date,
+    explanation: ('The picture of the day ' + date + ' shows a galaxy far away. ').repeat(16),
+    hdurl: 'https://apod.nasa.gov/apod/image/' + date + '/hd.jpg',
+    media_type: 'image',
+    service_version: 'v1',
+    title: 'Picture of ' + date,
+    url: 'https://apod.nasa.gov/apod/image/' + date + '/image.jpg',
+  })
+}
+
+// a different past day for every request, so none is coalesced
+function dateOf(i) {
+  return new Date(Date.UTC(1995, 5, 16) + (i % 10000) * 86400000).toISOString().slice(0, 10)
+}
+
+function makeCertificate(dir) {
+  execFileSync('openssl', [
+    'req', '-x509', '-newkey', 'rsa:2048', '-nodes', '-days', '1',
+    '-keyout', path.join(dir, 'key.pem'), '-out', path.join(dir, 'cert.pem'),
+    '-subj', '/CN=localhost', '-addext', 'subjectAltName=DNS:localhost',
+  ], { stdio: 'ignore' })
+}
+
+// the fake NASA API, in this process when forked with --upstream
+function runUpstream(dir) {
+  let counts = { connections: 0, requests: 0 }
+  let server = https.createServer({
+    key: fs.readFileSync(path.join(dir, 'key.pem')),
+    cert: fs.readFileSync(path.join(dir, 'cert.pem')),
+  }, (req, res) => {
+    counts.requests++
+    let date = new URL(req.url, 'https://localhost').searchParams.get('date')
+    res.writeHead(200, { 'content-type': 'application/json' })
+    res.end(entryOf(date))
+  })
+  server.on('secureConnection', () => counts.connections++)
+  server.listen(upstreamPort, () => process.send({ ready: true }))
+
+  process.on('message', () => {
+    process.send(counts)
+    counts = { connections: 0, requests: 0 }
+  })
+}
+
+function startUpstream(dir) {
+  return new Promise((resolve) => {
+    let upstream = fork(__filename, ['--upstream', dir])
+    upstream.once('message', () => resolve(upstream))
+  })
+}
+
+function upstreamCounts(upstream) {
+  return new Promise((resolve) => {
+    upstream.once('message', resolve)
+    upstream.send('counts')
+  })
+}
+
+function get(agent, urlPath) {
+  return new Promise((resolve, reject) => {
+    let req = http.get({ host: '127.0.0.1', port: proxyPort, path: urlPath, agent: agent }, (res) => {
+      let chunks = []
+      res.on('data', (chunk) => chunks.push(chunk))
+      res.on('end', () => resolve({ statusCode: res.statusCode, body: Buffer.concat(chunks) }))
+    })
+    req.on('error', reject)
+  })
+}
+
+// starts the proxy and waits until every worker answers
+async function startProxy(dir, workers, keepAlive) {
+  let runDir = fs.mkdtempSync(path.join(dir, 'proxy-'))
+  fs.writeFileSync(path.join(runDir, '.env'), [
+    'HTTP_PORT=' + proxyPort,
+    'NASA_API_HOST=localhost:' + upstreamPort,
+    'NASA_IMAGE_HOST=apod.nasa.gov',
+    'NASA_API_KEY=bench',
+    'CACHE_TODAY_TTL_SECONDS=0',
+    'CACHE_PAST_TTL_SECONDS=0',
+    'RENDITION_CACHE_DIR=' + path.join(runDir, 'renditions'),
+    'STATS_ENABLED=true',
+    'CLUSTER_WORKERS=' + workers,
+    'UPSTREAM_KEEP_ALIVE=' + keepAlive,
+    'APPROOV_TOKEN_BASE64_SECRET=' + Buffer.from('bench').toString('base64'),
+  ].join('\n'))
+
+  let proxy = spawn(process.execPath, [path.join(__dirname, '..', 'src', 'index.js')], {
+    cwd: runDir,
+    env: Object.assign({}, process.env, { NODE_EXTRA_CA_CERTS: path.join(dir, 'cert.pem') }),
+    stdio: 'ignore',
+  })
+
+  let agent = new http.Agent({ keepAlive: false })
+  let pids = new Set()
+  for (let attempt = 0; pids.size < workers; attempt++) {
+    if (attempt === 200) {
+      proxy.kill()
+      throw new Error('proxy did not start')
+    }
+    try {
+      let res = await get(agent, '/stats')
+      pids.add(JSON.parse(res.body).pid)
+    } catch (err) {
+      await new Promise((resolve) => setTimeout(resolve, 50))
+    }
+  }
+  return proxy
+}
+
+function stopProxy(proxy) {
+  return new Promise((resolve) => {
+    proxy.once('exit', resolve)
+    proxy.kill('SIGTERM')
+  })
+}
+
+// closed loop load: each client sends its next request once answered
+async function runLoad(seconds) {
+  let agent = new http.Agent({ keepAlive: true, maxSockets: concurrency })
+  let next = 0
+  let latencies = []
+  let errors = 0
+  let recording = false
+  let end = Date.now() + (warmupSeconds + seconds) * 1000
+  setTimeout(() => recording = true, warmupSeconds * 1000)
+
+  let clients = Array.from({ length: concurrency }, async () => {
+    while (Date.now() < end) {
+      let start = process.hrtime.bigint()
+      let ok = false
+      try {
+        let res = await get(agent, '/v1/localhost:' + upstreamPort + '/planetary/apod?date=' + dateOf(next++))
+        ok = res.statusCode === 200
+      } catch (err) {
+        ok = false
+      }
+      if (recording) {
+        latencies.push(Number(process.hrtime.bigint() - start) / 1e6)
+        errors += ok ? 0 : 1
+      }
+    }
+  })
+  await Promise.all(clients)
+  agent.destroy()
+
+  latencies.sort((a, b) => a - b)
+  let percentile = (p) => latencies[Math.min(latencies.length - 1, Math.floor(latencies.length * p))]
+  return {
+    rps: latencies.length / seconds,
+    p50: percentile(0.5),
+    p99: percentile(0.99),
+    errors: errors,
+  }
+}
+
+async function main(seconds, workersList) {
+  let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'load-bench-'))
+  makeCertificate(dir)
+  let upstream = await startUpstream(dir)
+
+  console.log(`${concurrency} concurrent clients, ${seconds} s per run, ${os.cpus().length} cores`)
+  console.log('workers  upstream      req/s   p50 ms   p99 ms  errors  upstream conns/req')
+
+  for (let keepAlive of [false, true]) {
+    for (let workers of workersList) {
+      let proxy = await startProxy(dir, workers, keepAlive)
+      await upstreamCounts(upstream)
+      let result = await runLoad(seconds)
+      let counts = await upstreamCounts(upstream)
+      await stopProxy(proxy)
+
+      console.log([
+        String(workers).padEnd(8),
+        (keepAlive ? 'keep-alive' : 'per request').padEnd(11),
+        result.rps.toFixed(0).padStart(9),
+        result.p50.toFixed(1).padStart(8),
+        result.p99.toFixed(1).padStart(8),
+        String(result.errors).padStart(7),
+        (counts.connections / Math.max(1, counts.requests)).toFixed(3).padStart(19),
+      ].join(' '))
+    }
+  }
+
+  upstream.kill()
+  fs.rmSync(dir, { recursive: true, force: true })
+}
+
+if (process.argv[2] === '--upstream') {
+  runUpstream(process.argv[3])
+} else {
+  let seconds = parseInt(process.argv[2] || '10', 10)
+  let workersList = process.argv.slice(3).map((workers) => parseInt(workers, 10))
+  main(seconds, workersList.length > 0 ? workersList : [1, 2, 4])
+}
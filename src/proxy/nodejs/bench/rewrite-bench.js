@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Compares answering a cached multi-day APOD response by rewriting and
+// tagging the whole body on every response against rewriting the cached
+// gzip body once and sending the shared result.
+//
+// Each case runs in its own process, so its peak RSS is its own:
+//
+//   npm run bench [-- days...]
+
+const { fork } = require('child_process')
+const crypto = require('crypto')
+const fs = require('fs')
+const os = require('os')
+const path = require('path')
+const zlib = require('zlib')
+const { Writable } = require('stream')
+
+const apodDirect = 'https://apod.nasa.gov/'
+const apodDirectRe = /https:\/\/apod\.nasa\.gov\//g
+const apodProxy = 'https://proxy.example.com/v1/apod.nasa.gov/'
+const concurrency = 8
+const modes = ['buffered', 'rewritten-identity', 'rewritten-gzip']
+
+// one APOD entry per day, with an explanation of a typical length
+function payloadOf(days) {
+  let entries = []
+  for (let day = 0; day < days; day++) {
+    let date = new Date(Date.UTC(1995, 5, 16) + day * 86400000).toISOString().slice(0, 10)
+    entries.push({
+      copyright: 'Someone',
+      date: date,
+      explanation: ('The picture of the day ' + date + ' shows a galaxy far away. ').repeat(16),
+      hdurl: apodDirect + 'apod/image/' + date + '/hd.jpg',
+      media_type: 'image',
+      service_version: 'v1',
+      title: 'Picture of ' + date,
+      url: apodDirect + 'apod/image/' + date + '/image.jpg',
+    })
+  }
+  return JSON.stringify(entries)
+}
+
+// a response socket draining at its own pace
+function sinkOf(onFirstByte, onFinish) {
+  let first = true
+  let sink = new Writable({
+    write(chunk, encoding, callback) {
+      if (first) {
+        first = false
+        onFirstByte()
+      }
+      setImmediate(callback)
+    },
+  })
+  sink.on('finish', onFinish)
+  return sink
+}
+
+// what the handler did before: rewrite and tag the whole body, then send it
+function answerBuffered(body, sink) {
+  let proxyBody = body.toString().replace(apodDirectRe, apodProxy)
+  let etag = '"' + crypto.createHash('sha1').update(proxyBody).digest('base64') + '"'
+  sink.end(Buffer.from(proxyBody))
+  return etag
+}
+
+// what the handler does now: rewrite the cached gzip body once, kept gzipped,
+// and inflate it for identity clients
+function answerRewritten(body, sink, gzip, memo) {
+  if (!memo.body) {
+    let json = zlib.gunzipSync(body).toString()
+    memo.body = zlib.gzipSync(json.split(apodDirect).join(apodProxy))
+  }
+  if (gzip) {
+    sink.end(memo.body)
+  } else {
+    zlib.gunzip(memo.body, (err, plain) => {
+      if (err) {
+        throw err
+      }
+      sink.end(plain)
+    })
+  }
+}
+
+function runCase(mode, file) {
+  // the cache holds the body as the handler did: plain before, gzip now
+  let body = fs.readFileSync(file)
+  if (global.gc) {
+    global.gc()
+  }
+  let baseRss = process.memoryUsage().rss
+
+  let start = process.hrtime.bigint()
+  let firstBytes = []
+  let finished = 0
+  let memo = {}
+  for (let i = 0; i < concurrency; i++) {
+    let sink = sinkOf(
+      () => firstBytes.push(Number(process.hrtime.bigint() - start) / 1e6),
+      () => {
+        if (++finished === concurrency) {
+          process.send({
+            ttfbMs: firstBytes.reduce((a, b) => a + b, 0) / firstBytes.length,
+            totalMs: Number(process.hrtime.bigint() - start) / 1e6,
+            peakRssMb: process.resourceUsage().maxRSS / 1024,
+            baseRssMb: baseRss / 1024 / 1024,
+          })
+        }
+      })
+    if (mode === 'buffered') {
+      answerBuffered(body, sink)
+    } else {
+      answerRewritten(body, sink, mode === 'rewritten-gzip', memo)
+    }
+  }
+}
+
+function runInChild(mode, file) {
+  return new Promise((resolve, reject) => {
+    let child = fork(__filename, ['--case', mode, file], { execArgv: ['--expose-gc'] })
+    child.on('message', resolve)
+    child.on('error', reject)
+  })
+}
+
+async function main(daysList) {
+  let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'rewrite-bench-'))
+  console.log(`${concurrency} concurrent responses of a cached APOD range response`)
+  console.log('days    body MB  mode                 ttfb ms  total ms  peak RSS MB  base RSS MB')
+
+  for (let days of daysList) {
+    let payload = Buffer.from(payloadOf(days))
+    let plainFile = path.join(dir, days + '.json')
+    let gzipFile = plainFile + '.gz'
+    fs.writeFileSync(plainFile, payload)
+    fs.writeFileSync(gzipFile, zlib.gzipSync(payload))
+
+    for (let mode of modes) {
+      let result = await runInChild(mode, mode === 'buffered' ? plainFile : gzipFile)
+      console.log([
+        String(days).padEnd(7),
+        (payload.length / 1024 / 1024).toFixed(1).padStart(7),
+        ' ' + mode.padEnd(20),
+        result.ttfbMs.toFixed(1).padStart(7),
+        result.totalMs.toFixed(1).padStart(9),
+        result.peakRssMb.toFixed(1).padStart(12),
+        result.baseRssMb.toFixed(1).padStart(12),
+      ].join(' '))
+    }
+  }
+
+  fs.rmSync(dir, { recursive: true, force: true })
+}
+
+if (process.argv[2] === '--case') {
+  runCase(process.argv[3], process.argv[4])
+} else {
+  let daysList = process.argv.slice(2).map((days) => parseInt(days, 10))
+  main(daysList.length > 0 ? daysList : [100, 1000, 5000])
+}
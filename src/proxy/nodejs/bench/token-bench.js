@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Compares the CPU time the Approov token check takes per request, with
+// and without the cache of verified tokens.
+//
+// Tokens are signed locally, one per simulated client, and each client
+// sends its token with every request, as a scrolling app does. The check
+// runs in this process on stand-in requests, so only its own cost is
+// measured:
+//
+//   npm run bench:token [-- requests [clients]]
+
+const crypto = require('crypto')
+const fs = require('fs')
+const os = require('os')
+const path = require('path')
+const { signApproovToken } = require('../test/proxy-harness')
+
+const secret = Buffer.from('approov bench secret').toString('base64')
+
+// the check reads its settings from the .env file of the working directory
+let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'token-bench-'))
+fs.writeFileSync(path.join(dir, '.env'), [
+  'APPROOV_TOKEN_BASE64_SECRET=' + secret,
+  'APPROOV_ABORT_REQUEST_ON_INVALID_TOKEN=true',
+  'APPROOV_CHECK_TOKEN_BINDING=true',
+].join('\n'))
+process.chdir(dir)
+
+const approovConfig = require('../src/approov-config')
+const approov = require('../src/approov-token-check')
+const log = require('../src/logging')
+
+// the check logs every request, which would swamp what it costs
+Object.keys(log).forEach((name) => log[name] = () => {})
+
+// a request as the middleware sees it, with a token bound to its Authorization header
+function requestOf(token, authorization) {
+  let headers = { 'approov-token': token, authorization: authorization }
+  return { method: 'GET', originalUrl: '/v2/bench', headers: headers, get: (name) => headers[name.toLowerCase()] }
+}
+
+function responseOf() {
+  let res = { statusCode: 200 }
+  res.status = (code) => {
+    res.statusCode = code
+    return res
+  }
+  res.json = () => res
+  return res
+}
+
+// runs the token check and the token binding check, as the server does
+function check(req) {
+  return new Promise((resolve, reject) => {
+    let res = responseOf()
+    approov.checkApproovToken(req, res, (err) => {
+      if (err) {
+        return reject(err)
+      }
+      approov.handlesApproovTokenBindingVerification(req, res, () => resolve(res.statusCode))
+    })
+  })
+}
+
+async function run(requests, clients) {
+  let exp = Math.floor(Date.now() / 1000) + 3600
+  let requestsOf = Array.from({ length: clients }, (_, client) => {
+    let authorization = 'Bearer client-' + client
+    let pay = crypto.createHash('sha256').update(authorization, 'utf-8').digest('base64')
+    return { token: signApproovToken(secret, { exp: exp, pay: pay }), authorization: authorization }
+  })
+
+  // warm up the code paths, and the cache when it is on
+  for (let i = 0; i < clients * 10; i++) {
+    let client = requestsOf[i % clients]
+    await check(requestOf(client.token, client.authorization))
+  }
+
+  let start = process.hrtime.bigint()
+  let cpu = process.cpuUsage()
+  for (let i = 0; i < requests; i++) {
+    let client = requestsOf[i % clients]
+    let status = await check(requestOf(client.token, client.authorization))
+    if (status !== 200) {
+      throw new Error('token rejected')
+    }
+  }
+  let used = process.cpuUsage(cpu)
+  let wall = Number(process.hrtime.bigint() - start) / 1e3
+
+  return { cpuMicros: (used.user + used.system) / requests, wallMicros: wall / requests }
+}
+
+async function main(requests, clients) {
+  console.log(`${requests} requests from ${clients} clients, token binding checked`)
+  console.log('token cache   cpu us/request   wall us/request')
+
+  let results = {}
+  for (let [name, maxEntries] of [['off', 0], ['on', 10000]]) {
+    approovConfig.approov.tokenCacheMaxEntries = maxEntries
+    results[name] = await run(requests, clients)
+    console.log([
+      name.padEnd(11),
+      results[name].cpuMicros.toFixed(2).padStart(16),
+      results[name].wallMicros.toFixed(2).padStart(17),
+    ].join(' '))
+  }
+  console.log(`cached checks use ${(results.off.cpuMicros / results.on.cpuMicros).toFixed(1)}x less CPU`)
+
+  fs.rmSync(dir, { recursive: true, force: true })
+}
+
+main(parseInt(process.argv[2] || '50000', 10), parseInt(process.argv[3] || '100', 10))
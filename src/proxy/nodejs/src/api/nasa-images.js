@@ -15,11 +15,290 @@
  */
 
 const request = require('request')
+const sharp = require('sharp')
 const log = require('./../logging')
 const config = require(`${__dirname}/../config.js`)
+const { createResponseCache } = require('./../response-cache')
+const { createDiskCache } = require('./../disk-cache')
+const { agentFor } = require('./../upstream-agents')
 
 const apodHostname = config.NASA_IMAGE_HOST
 
+// images never change once published
+const imageCacheControl = 'public, max-age=31536000, immutable';
+
+// rendition widths are rounded up to a step, to bound the variants cached
+const renditionWidthStep = 64;
+const renditionMaxWidth = 2048;
+const renditionTypes = { webp: 'image/webp', jpeg: 'image/jpeg' };
+
+// image downloads, shared by every client
+const imageCacheMaxEntryBytes = config.IMAGE_CACHE_MAX_ENTRY_MB * 1024 * 1024;
+const imageCache = createResponseCache({
+  maxEntries: config.CACHE_MAX_ENTRIES,
+  maxBytes: config.IMAGE_CACHE_MAX_MB * 1024 * 1024,
+  maxEntryBytes: imageCacheMaxEntryBytes,
+});
+
+// renditions, the recent ones in memory and all of them on disk
+const renditionCache = createResponseCache({
+  maxEntries: config.CACHE_MAX_ENTRIES,
+  maxBytes: config.RENDITION_MEMORY_CACHE_MAX_MB * 1024 * 1024,
+});
+const renditionDiskCache = createDiskCache({
+  dir: config.RENDITION_CACHE_DIR,
+  maxBytes: config.RENDITION_CACHE_MAX_MB * 1024 * 1024,
+});
+
+// handed to the requests waiting for an image streamed to another client, but not kept
+const unshared = { statusCode: 0, headers: {}, body: Buffer.alloc(0) };
+
+/**
+ * Reads the rendition asked for in the query of an image request.
+ *
+ * @param query the parsed query, with an optional width, w, and format, webp or jpeg.
+ * @return the rendition, null for the original image, or undefined if invalid.
+ */
+function renditionOf(query) {
+  if (query.w === undefined && query.format === undefined) {
+    return null;
+  }
+  // a parameter given more than once, or as key[], is parsed as an array
+  if ((query.format !== undefined && typeof query.format !== 'string') ||
+      (query.w !== undefined && typeof query.w !== 'string')) {
+    return undefined;
+  }
+
+  let format = query.format || 'jpeg';
+  if (!renditionTypes.hasOwnProperty(format)) {
+    return undefined;
+  }
+
+  let width = undefined;
+  if (query.w !== undefined) {
+    width = parseInt(query.w, 10);
+    if (!(width > 0)) {
+      return undefined;
+    }
+    width = Math.min(Math.ceil(width / renditionWidthStep) * renditionWidthStep, renditionMaxWidth);
+  }
+
+  return { width: width, format: format };
+}
+
+/**
+ * Returns the time to live of a downloaded image.
+ *
+ * @param statusCode the status code of the download.
+ * @return the time to live, none for an error.
+ */
+function ttlOf(statusCode) {
+  return statusCode === 200 ? config.CACHE_PAST_TTL_SECONDS * 1000 : 0;
+}
+
+/**
+ * Returns the headers to answer with for a downloaded image.
+ *
+ * @param statusCode the status code of the download.
+ * @param upstreamHeaders the headers of the download, which may be shared.
+ * @return a copy of the headers.
+ */
+function imageHeadersOf(statusCode, upstreamHeaders) {
+  let headers = Object.assign({}, upstreamHeaders);
+  delete headers['connection'];
+  delete headers['keep-alive'];
+  delete headers['transfer-encoding'];
+  if (statusCode === 200) {
+    headers['cache-control'] = imageCacheControl;
+  }
+  return headers;
+}
+
+/**
+ * Downloads an original image into a buffer.
+ *
+ * @param imageUrl the image url.
+ * @param done called back with (err, image).
+ */
+function downloadImage(imageUrl, done) {
+  let options = { url: imageUrl, encoding: null, agent: agentFor(imageUrl), timeout: config.UPSTREAM_TIMEOUT_MS };
+  request(options, (err, imageRes, imageBody) => {
+    if (err) {
+      return done(err);
+    }
+
+    done(null, { statusCode: imageRes.statusCode, headers: imageRes.headers, body: imageBody });
+  });
+}
+
+/**
+ * Downloads an original image into a buffer, once for every concurrent
+ * request, e.g. to resize it.
+ *
+ * @param imageUrl the image url.
+ * @param done called back with (err, image, hit).
+ */
+function fetchImage(imageUrl, done) {
+  imageCache.fetch(imageUrl, (loaded) => {
+    downloadImage(imageUrl, (err, image) => {
+      if (err) {
+        return loaded(err);
+      }
+
+      loaded(null, image, image.body.length, ttlOf(image.statusCode));
+    });
+  }, (err, image, hit) => {
+    if (image === unshared) {
+      // streamed to another client without being kept, so download it again
+      return downloadImage(imageUrl, (err, image) => done(err, image, false));
+    }
+    done(err, image, hit);
+  });
+}
+
+/**
+ * Streams an original image to a client as it downloads.
+ *
+ * The image is kept, for the cache and the requests waiting for it, only
+ * when its content-length fits a cache entry. A stalled download fails
+ * after the upstream timeout, and so do the requests waiting for it.
+ *
+ * @param imageUrl the image url.
+ * @param res the response to the client.
+ * @param loaded the loader callback of the image cache, if any, called back
+ * with (err, image, size, ttlMillis), or with unshared when not kept.
+ */
+function streamImage(imageUrl, res, loaded) {
+  let settle = (err, image, size, ttlMillis) => {
+    let callback = loaded;
+    loaded = undefined;
+    if (callback) {
+      callback(err, image, size, ttlMillis);
+    }
+  };
+
+  let upstream = request({ url: imageUrl, agent: agentFor(imageUrl), timeout: config.UPSTREAM_TIMEOUT_MS });
+  upstream.on('error', (err) => {
+    settle(err);
+    if (res.headersSent) {
+      log.fatalError(`Failed to stream image: ${imageUrl}: ${err}`);
+      res.destroy(err);
+    } else {
+      log.fatalError(`Internal Server Error: in image proxy: ${err}`);
+      res.status(500).json({error: 'Internal Server Error'});
+    }
+  });
+
+  upstream.on('response', (imageRes) => {
+    log.info("Streaming image: " + imageUrl)
+
+    let length = parseInt(imageRes.headers['content-length'], 10);
+    let chunks = loaded && length <= imageCacheMaxEntryBytes ? [] : undefined;
+    if (!chunks) {
+      // too big for the cache, or of unknown size
+      settle(null, unshared, 0, 0);
+    }
+
+    res.writeHead(imageRes.statusCode, imageHeadersOf(imageRes.statusCode, imageRes.headers));
+    imageRes.on('data', (chunk) => chunks && chunks.push(chunk));
+    imageRes.on('end', () => {
+      if (chunks) {
+        let image = { statusCode: imageRes.statusCode, headers: imageRes.headers, body: Buffer.concat(chunks) };
+        settle(null, image, image.body.length, ttlOf(imageRes.statusCode));
+      }
+    });
+    imageRes.pipe(res);
+
+    res.on('close', () => {
+      if (!res.writableFinished) {
+        // the client went away: finish a download kept for others, drop any other
+        if (chunks) {
+          imageRes.resume();
+        } else {
+          imageRes.destroy();
+        }
+      }
+    });
+  });
+}
+
+/**
+ * Sends an original image, once for every concurrent request.
+ *
+ * A cached image is sent from memory. Otherwise the first request streams
+ * the download to its client, and the requests arriving meanwhile get the
+ * image once downloaded, or stream it again if it is not kept.
+ *
+ * @param imageUrl the image url.
+ * @param res the response to the client.
+ * @param done called back with (err, image, hit), unless the image was streamed.
+ */
+function sendImage(imageUrl, res, done) {
+  let streaming = false;
+  imageCache.fetch(imageUrl, (loaded) => {
+    streaming = true;
+    streamImage(imageUrl, res, loaded);
+  }, (err, image, hit) => {
+    if (streaming) {
+      return;
+    }
+    if (image === unshared) {
+      return streamImage(imageUrl, res);
+    }
+    done(err, image, hit);
+  });
+}
+
+/**
+ * Gets a rendition of an image, from the disk cache or resized from the
+ * original, once for every concurrent request.
+ *
+ * @param imageUrl the image url.
+ * @param rendition the rendition.
+ * @param done called back with (err, image, hit).
+ */
+function fetchRendition(imageUrl, rendition, done) {
+  let key = imageUrl + '?w=' + (rendition.width || '') + '&format=' + rendition.format;
+  let headers = { 'content-type': renditionTypes[rendition.format] };
+  let ttl = config.CACHE_PAST_TTL_SECONDS * 1000;
+
+  renditionCache.fetch(key, (loaded) => {
+    renditionDiskCache.get(key, (err, stored) => {
+      if (stored) {
+        return loaded(null, { statusCode: 200, headers: headers, body: stored }, stored.length, ttl);
+      }
+
+      fetchImage(imageUrl, (err, image) => {
+        if (err || image.statusCode !== 200) {
+          // nothing to resize, hand out the upstream error as is
+          return loaded(err, image, 0, 0);
+        }
+
+        let resized = sharp(image.body)
+          .rotate()
+          .resize({ width: rendition.width, withoutEnlargement: true });
+        resized = rendition.format === 'webp'
+          ? resized.webp({ quality: config.RENDITION_QUALITY })
+          : resized.jpeg({ quality: config.RENDITION_QUALITY, mozjpeg: true });
+
+        resized.toBuffer((err, body) => {
+          if (err) {
+            return loaded(err);
+          }
+
+          log.info("Resized image: " + key + " from " + image.body.length + " to " + body.length + " bytes")
+          renditionDiskCache.put(key, body, (err) => {
+            if (err) {
+              log.warning("Failed to store rendition: " + key + ": " + err)
+            }
+          });
+          loaded(null, { statusCode: 200, headers: headers, body: body }, body.length, ttl);
+        });
+      });
+    });
+  }, done);
+}
+
 /**
  * Describes NASA API route handlers.
  *
@@ -27,17 +306,55 @@ const apodHostname = config.NASA_IMAGE_HOST
  */
 function routes(app) {
 
-  // proxy a picture of the day image download
+  // proxy a picture of the day image download, or a smaller rendition of it
   app.get(`/:version/${apodHostname}/apod/image/*`, (req, res, next) => {
 
-    let proxyUrl = req.url.replace('/' + req.params.version + '/', 'https://');
-    log.info("IMAGE URL: " + proxyUrl)
+    let proxyUrl = req.path.replace('/' + req.params.version + '/', 'https://');
+    log.info("IMAGE URL: " + req.url)
+
+    let rendition = renditionOf(req.query);
+    if (rendition === undefined) {
+      res.status(400).json({error: 'Bad Request: invalid image rendition'});
+      return;
+    }
+
+    // concurrent downloads of the same image share one upstream request
+    let fetch = rendition ? (done) => fetchRendition(proxyUrl, rendition, done) : (done) => sendImage(proxyUrl, res, done);
+    fetch((err, image, hit) => {
+      if (err) {
+        log.fatalError(`Internal Server Error: in image proxy: ${err}`);
+        res.status(500).json({error: 'Internal Server Error'});
+        return;
+      }
+
+      log.info((hit ? "Cached" : "Fetched") + " image: " + req.url)
 
-    let proxyReq = request(proxyUrl);
+      // the image may be shared, so answer with a copy of its headers
+      let headers = imageHeadersOf(image.statusCode, image.headers);
+      headers['content-length'] = image.body.length.toString();
 
-    // pipe the image request through the proxy
-    req.pipe(proxyReq).pipe(res);
+      res.writeHead(image.statusCode, headers);
+      res.end(image.body);
+    });
   });
 }
 
-module.exports = { routes: routes };
+/**
+ * Returns the statistics of the image cache.
+ *
+ * @return the statistics.
+ */
+function cacheStats() {
+  return imageCache.getStats();
+}
+
+/**
+ * Returns the statistics of the rendition caches.
+ *
+ * @return the statistics, in memory and on disk.
+ */
+function renditionStats() {
+  return { memory: renditionCache.getStats(), disk: renditionDiskCache.getStats() };
+}
+
+module.exports = { routes: routes, cacheStats: cacheStats, renditionStats: renditionStats };
@@ -15,8 +15,13 @@
  */
 
 const url = require('url');
+const crypto = require('crypto');
+const zlib = require('zlib');
 const request = require('request');
 const log = require('./../logging')
+const { createResponseCache } = require('./../response-cache')
+const { agentFor, upstreamHeadersOf } = require('./../upstream-agents')
+const { apodCborType, encodeApod } = require('./../apod-cbor')
 
 // load api configuration and secrets
 const config = require(`${__dirname}/../config.js`);
@@ -25,7 +30,196 @@ const nasa_api_key = config.NASA_API_KEY;
 const apodHostname = config.NASA_IMAGE_HOST;
 const apodRoute = '/' + apodHostname + '/apod/image/*'
 const apodDirect = 'https://' + apodHostname + '/';
-const apodDirectRe = new RegExp(apodDirect.replace(/[-\/\\^$*+?.()|[\]{}]/g, '\\$&'), 'g');
+
+// entries for past days never change, today's may until the day is over
+const pastCacheControl = 'public, max-age=' + config.CLIENT_PAST_MAX_AGE_SECONDS + ', immutable';
+const todayCacheControl = 'no-cache';
+
+// the APOD day rolls over at midnight US Eastern time
+const apodTimeZone = 'America/New_York';
+
+// upstream responses, shared by every client and kept compressed
+const apiCache = createResponseCache({
+  maxEntries: config.CACHE_MAX_ENTRIES,
+  maxBytes: config.CACHE_MAX_MB * 1024 * 1024,
+});
+
+/**
+ * Returns today's APOD date.
+ *
+ * @return the date, as yyyy-mm-dd.
+ */
+function apodToday() {
+  // the en-CA locale formats dates as yyyy-mm-dd
+  return new Date().toLocaleDateString('en-CA', { timeZone: apodTimeZone });
+}
+
+/**
+ * Tells whether every day of an APOD query is over, so its entries are final.
+ *
+ * A query with no date asks for today; a range with no end date runs to today.
+ *
+ * @param query the parsed query.
+ * @return true if only past days are asked for.
+ */
+function isPastQuery(query) {
+  let lastDate = query.date || query.end_date;
+  if (query.start_date && !query.end_date) {
+    lastDate = undefined;
+  }
+
+  return /^\d{4}-\d{2}-\d{2}$/.test(lastDate || '') && lastDate < apodToday();
+}
+
+/**
+ * Returns the cache key of an APOD query.
+ *
+ * The key is the path and the sorted query parameters, without the api key.
+ * A query for today is keyed by today's date, so it rolls over with the day.
+ *
+ * @param pathname the path of the query.
+ * @param query the parsed query.
+ * @return the key.
+ */
+function cacheKeyOf(pathname, query) {
+  let params = Object.assign({}, query);
+  delete params.api_key;
+
+  if (!params.date && !params.start_date) {
+    params.date = apodToday();
+  } else if (params.start_date && !params.end_date) {
+    params.end_date = apodToday();
+  }
+
+  let normalized = Object.keys(params).sort().map((name) => name + '=' + params[name]).join('&');
+  return pathname.replace(/\/+$/, '') + '?' + normalized;
+}
+
+/**
+ * Returns a strong entity tag for a response body.
+ *
+ * The body sent is the upstream content with its image urls rewritten, in
+ * the representation and content coding the client accepts, so the tag
+ * covers all of them.
+ *
+ * @param digest the digest of the upstream content.
+ * @param apodProxy the proxy url replacing the image host.
+ * @param variant the content coding of the response, gzip or identity,
+ * prefixed with 'cbor;' for the compact representation.
+ * @return the quoted entity tag.
+ */
+function etagOf(digest, apodProxy, variant) {
+  return '"' + crypto.createHash('sha1').update(digest + '\n' + apodProxy + '\n' + variant).digest('base64') + '"';
+}
+
+/**
+ * Computes the digest of an upstream body, decompressing it as it goes.
+ *
+ * @param body the body, as received.
+ * @param gzipped whether the body is gzip encoded.
+ * @param callback called back with (err, digest).
+ */
+function digestOf(body, gzipped, callback) {
+  let hash = crypto.createHash('sha1');
+  if (!gzipped) {
+    return callback(null, hash.update(body).digest('base64'));
+  }
+
+  let gunzip = zlib.createGunzip();
+  gunzip.on('data', (chunk) => hash.update(chunk));
+  gunzip.on('error', callback);
+  gunzip.on('end', () => callback(null, hash.digest('base64')));
+  gunzip.end(body);
+}
+
+/**
+ * Returns the compact representation of an upstream APOD response.
+ *
+ * It is encoded once per proxy url and kept gzipped with the upstream
+ * response, so it is shared and expires with it.
+ *
+ * @param upstream the cached upstream response, a successful one.
+ * @param apodProxy the proxy url replacing the image host.
+ * @param callback called back with (err, gzipped compact body).
+ */
+function compactOf(upstream, apodProxy, callback) {
+  let memo = upstream.compact;
+  if (memo && memo.apodProxy === apodProxy) {
+    return callback(null, memo.body);
+  }
+
+  let inflate = upstream.gzipped ? zlib.gunzip : (body, done) => done(null, body);
+  inflate(upstream.body, (err, json) => {
+    if (err) {
+      return callback(err);
+    }
+
+    let compact;
+    try {
+      compact = encodeApod(JSON.parse(json.toString().split(apodDirect).join(apodProxy)));
+    } catch (err) {
+      return callback(err);
+    }
+
+    zlib.gzip(compact, (err, body) => {
+      if (err) {
+        return callback(err);
+      }
+
+      upstream.compact = { apodProxy: apodProxy, body: body };
+      callback(null, body);
+    });
+  });
+}
+
+/**
+ * Returns an upstream response body with its image urls rewritten.
+ *
+ * It is rewritten once per proxy url and kept gzipped with the upstream
+ * response, so it is shared and expires with it.
+ *
+ * @param upstream the cached upstream response.
+ * @param apodProxy the proxy url replacing the image host.
+ * @param callback called back with (err, gzipped rewritten body).
+ */
+function rewrittenOf(upstream, apodProxy, callback) {
+  let memo = upstream.rewritten;
+  if (memo && memo.apodProxy === apodProxy) {
+    return callback(null, memo.body);
+  }
+
+  let inflate = upstream.gzipped ? zlib.gunzip : (body, done) => done(null, body);
+  inflate(upstream.body, (err, json) => {
+    if (err) {
+      return callback(err);
+    }
+
+    zlib.gzip(json.toString().split(apodDirect).join(apodProxy), (err, body) => {
+      if (err) {
+        return callback(err);
+      }
+
+      upstream.rewritten = { apodProxy: apodProxy, body: body };
+      callback(null, body);
+    });
+  });
+}
+
+/**
+ * Tells whether the client already holds the current response body.
+ *
+ * @param ifNoneMatch the If-None-Match header of the request, if any.
+ * @param etag the entity tag of the current body.
+ * @return true if the header lists the entity tag.
+ */
+function isNotModified(ifNoneMatch, etag) {
+  if (!ifNoneMatch) {
+    return false;
+  }
+
+  return ifNoneMatch.trim() === '*' ||
+    ifNoneMatch.split(',').some((tag) => tag.trim().replace(/^W\//, '') === etag);
+}
 
 /**
  * Describes NASA API route handlers.
@@ -60,30 +254,132 @@ function routes(app) {
     log.info("NASA API URL: " + nasaUrl)
     log.info("NASA APOD URL: " + apodProxy)
 
-    // reuse most headers
-    let nasaHdrs = req.headers;
+    // the etag check happens here, so ask for the full body
+    let ifNoneMatch = req.headers['if-none-match'];
+    let coding = req.acceptsEncodings('gzip', 'identity') === 'gzip' ? 'gzip' : 'identity';
+
+    // JSON unless the client prefers the compact representation
+    let wantsCompact = req.accepts(['application/json', apodCborType]) === apodCborType;
+
+    // reuse most headers, the body is cached compressed whatever the client accepts
+    let nasaHdrs = upstreamHeadersOf(req.headers);
     delete nasaHdrs['host'];
-    delete nasaHdrs['accept-encoding'];
+    delete nasaHdrs['if-none-match'];
+    delete nasaHdrs['if-modified-since'];
+    nasaHdrs['accept-encoding'] = 'gzip';
+
+    let past = isPastQuery(urlInfo.query);
+    let cacheKey = cacheKeyOf(urlInfo.pathname, urlInfo.query);
+
+    // the same query from any client within its time to live shares one upstream call
+    apiCache.fetch(cacheKey, (done) => {
+      request({ url: nasaUrl, headers: nasaHdrs, encoding: null, agent: agentFor(nasaUrl), timeout: config.UPSTREAM_TIMEOUT_MS }, (err, proxyRes, proxyBody) => {
+        if (err) {
+          return done(err);
+        }
+
+        let gzipped = (proxyRes.headers['content-encoding'] || '').trim().toLowerCase() === 'gzip';
+        digestOf(proxyBody, gzipped, (err, digest) => {
+          if (err) {
+            return done(err);
+          }
 
-    // start proxy request
-    request({ url: nasaUrl, headers: nasaHdrs }, (err, proxyRes, proxyBody) => {
+          let upstream = { statusCode: proxyRes.statusCode, headers: proxyRes.headers, body: proxyBody, gzipped: gzipped, digest: digest };
+          let ttl = proxyRes.statusCode !== 200 ? 0 : past ? config.CACHE_PAST_TTL_SECONDS * 1000 : config.CACHE_TODAY_TTL_SECONDS * 1000;
+          done(null, upstream, proxyBody.length, ttl);
+        });
+      });
+    }, (err, upstream, hit) => {
       if (err) {
         log.fatalError(`Internal Server Error: in NASA proxy: ${err}`);
         res.status(500).json({error: 'Internal Server Error'});
       } else {
 
-        log.info("Replacing NASA apod image url in the response body...")
+        log.info((hit ? "Cached" : "Fetched") + " NASA API response for: " + cacheKey)
+
+        let respond = (body, compact) => {
+          // the upstream response may be shared, so answer with a copy of its headers
+          let headers = Object.assign({}, upstream.headers);
+          delete headers['connection'];
+          delete headers['keep-alive'];
+          delete headers['transfer-encoding'];
+          delete headers['content-length'];
+          delete headers['content-encoding'];
+          if (coding === 'gzip') {
+            headers['content-encoding'] = 'gzip';
+          }
+          if (compact) {
+            headers['content-type'] = apodCborType;
+          }
+          headers['vary'] = 'Accept, Accept-Encoding';
+
+          if (upstream.statusCode === 200) {
+            // let clients cache past days for good and revalidate today
+            let etag = etagOf(upstream.digest, apodProxy, (compact ? 'cbor;' : '') + coding);
+            delete headers['expires'];
+            delete headers['last-modified'];
+            headers['etag'] = etag;
+            headers['cache-control'] = past ? pastCacheControl : todayCacheControl;
+
+            if (isNotModified(ifNoneMatch, etag)) {
+              log.info("NASA API response not modified: " + etag)
+              delete headers['content-encoding'];
+              delete headers['content-type'];
+              res.writeHead(304, headers);
+              res.end();
+              return;
+            }
+          }
+
+          // both bodies are kept gzipped, so only identity clients need them inflated
+          let inflate = coding === 'gzip' ? (body, done) => done(null, body) : zlib.gunzip;
+          inflate(body, (err, body) => {
+            if (err) {
+              log.fatalError(`Internal Server Error: in NASA proxy: ${err}`);
+              res.status(500).json({error: 'Internal Server Error'});
+              return;
+            }
+
+            headers['content-length'] = body.length.toString();
+            res.writeHead(upstream.statusCode, headers);
+            res.end(body);
+          });
+        };
 
         // patch response to redirect any apod image requests through proxy
-        proxyBody = proxyBody.replace(apodDirectRe, apodProxy);
+        let respondJson = () => rewrittenOf(upstream, apodProxy, (err, body) => {
+          if (err) {
+            log.fatalError(`Internal Server Error: in NASA proxy: ${err}`);
+            res.status(500).json({error: 'Internal Server Error'});
+            return;
+          }
+          respond(body, false);
+        });
 
-        proxyRes.headers["content-length"] = proxyBody.length.toString();
-        res.writeHead(proxyRes.statusCode, proxyRes.headers);
-        res.write(proxyBody);
-        res.end();
+        if (wantsCompact && upstream.statusCode === 200) {
+          compactOf(upstream, apodProxy, (err, compact) => {
+            if (err) {
+              // the JSON body can still be passed on instead
+              log.fatalError(`Failed to encode compact NASA API response for: ${cacheKey}: ${err}`);
+              return respondJson();
+            }
+            respond(compact, true);
+          });
+        } else {
+          respondJson();
+        }
       }
     });
   });
 }
 
-module.exports = { routes: routes };
+/**
+ * Returns the statistics of the NASA API response cache.
+ *
+ * @return the statistics.
+ */
+function cacheStats() {
+  return apiCache.getStats();
+}
+
+module.exports = { routes: routes, cacheStats: cacheStats };
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// The compact APOD encoding, in CBOR (RFC 8949): an array of days, each a
+// map from small integer keys to the only fields the client uses. Video
+// days are left out, as the client skips them. Keep the keys in step with
+// ApodCborReader in the client.
+const apodCborType = 'application/cbor';
+const DAY = 0;          // the epoch day of the date, an unsigned integer
+const TITLE = 1;
+const URL = 2;
+const EXPLANATION = 3;
+
+const MAJOR_UNSIGNED = 0;
+const MAJOR_TEXT = 3;
+const MAJOR_ARRAY = 4;
+const MAJOR_MAP = 5;
+
+const dayMillis = 24 * 60 * 60 * 1000;
+
+/**
+ * Returns the CBOR head of a data item.
+ *
+ * @param major the major type.
+ * @param value the argument, e.g. a length, below 2^32.
+ * @return the head bytes.
+ */
+function headOf(major, value) {
+  if (value < 24) {
+    return Buffer.from([(major << 5) | value]);
+  }
+  if (value < 0x100) {
+    return Buffer.from([(major << 5) | 24, value]);
+  }
+  if (value < 0x10000) {
+    let head = Buffer.alloc(3);
+    head[0] = (major << 5) | 25;
+    head.writeUInt16BE(value, 1);
+    return head;
+  }
+
+  let head = Buffer.alloc(5);
+  head[0] = (major << 5) | 26;
+  head.writeUInt32BE(value, 1);
+  return head;
+}
+
+/**
+ * Returns the epoch day of an APOD date.
+ *
+ * @param date the date, as yyyy-mm-dd.
+ * @return the epoch day, or undefined if the date is malformed.
+ */
+function epochDayOf(date) {
+  let match = /^(\d{4})-(\d{2})-(\d{2})$/.exec(date || '');
+  if (!match) {
+    return undefined;
+  }
+
+  return Date.UTC(+match[1], +match[2] - 1, +match[3]) / dayMillis;
+}
+
+/**
+ * Encodes APOD days in the compact encoding.
+ *
+ * @param apod a parsed APOD response, a single day or an array of days.
+ * @return the CBOR body.
+ */
+function encodeApod(apod) {
+  let days = (Array.isArray(apod) ? apod : [apod]).filter((day) => day.media_type !== 'video');
+  let parts = [headOf(MAJOR_ARRAY, days.length)];
+
+  days.forEach((day) => {
+    let fields = [];
+    let epochDay = epochDayOf(day.date);
+    if (epochDay !== undefined && epochDay >= 0) {
+      fields.push([DAY, headOf(MAJOR_UNSIGNED, epochDay)]);
+    }
+    [[TITLE, day.title], [URL, day.url], [EXPLANATION, day.explanation]].forEach(([key, value]) => {
+      if (typeof(value) === 'string') {
+        let text = Buffer.from(value);
+        fields.push([key, Buffer.concat([headOf(MAJOR_TEXT, text.length), text])]);
+      }
+    });
+
+    parts.push(headOf(MAJOR_MAP, fields.length));
+    fields.forEach(([key, value]) => parts.push(headOf(MAJOR_UNSIGNED, key), value));
+  });
+
+  return Buffer.concat(parts);
+}
+
+module.exports = { apodCborType: apodCborType, encodeApod: encodeApod };
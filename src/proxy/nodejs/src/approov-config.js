@@ -11,6 +11,7 @@ let isToCheckTokenBinding = true
 const abortRequestOnInvalidToken = dotenv.parsed.APPROOV_ABORT_REQUEST_ON_INVALID_TOKEN || 'true'
 const checkTokenBinding = dotenv.parsed.APPROOV_CHECK_TOKEN_BINDING || 'true'
 const abortOnInvalidTokenBinding = dotenv.parsed.APPROOV_ABORT_REQUEST_ON_INVALID_TOKEN_BINDING || 'true'
+const tokenCacheMaxEntries = dotenv.parsed.APPROOV_TOKEN_CACHE_MAX_ENTRIES || '10000'
 
 if (abortRequestOnInvalidToken.toLowerCase() === 'false') {
   isToAbortRequestOnInvalidToken = false
@@ -29,6 +30,9 @@ const approov = {
   isToCheckTokenBinding: isToCheckTokenBinding,
   abortRequestOnInvalidTokenBinding: isToAbortOnInvalidBinding,
 
+  // verified tokens kept to skip the signature check, 0 to check every request
+  tokenCacheMaxEntries: parseInt(tokenCacheMaxEntries, 10),
+
   // The Approov base64 secret must be retrieved with the Approov CLI tool
   base64Secret: dotenv.parsed.APPROOV_TOKEN_BASE64_SECRET,
 }
@@ -131,11 +131,59 @@ const isEmptyString = function(value) {
 }
 
 
+////// APPROOV TOKEN CACHE //////
+
+
+// Tokens whose signature was verified, keyed by a digest of the token and its
+// binding header, until they expire. A client sends the same token on every
+// request of its validity window, so repeat requests skip the signature check.
+const verifiedTokens = new Map()
+
+const tokenCacheKey = function(approovToken, tokenBindingHeader) {
+  return crypto.createHash('sha256')
+    .update(approovToken, 'utf-8')
+    .update('\n')
+    .update(tokenBindingHeader || '', 'utf-8')
+    .digest('base64')
+}
+
+const getVerifiedToken = function(key) {
+  const verified = verifiedTokens.get(key)
+
+  if (verified === undefined) {
+    return undefined
+  }
+
+  // same rule as the jwt check: the token is expired from its `exp` second on
+  if (Math.floor(Date.now() / 1000) >= verified.exp) {
+    verifiedTokens.delete(key)
+    return undefined
+  }
+
+  return verified
+}
+
+const putVerifiedToken = function(key, claims) {
+  // a token without an expiry is verified every time
+  if (typeof(claims.exp) !== 'number') {
+    return
+  }
+
+  verifiedTokens.delete(key)
+  verifiedTokens.set(key, { claims: claims, exp: claims.exp, isBindingVerified: false })
+
+  // a Map iterates in insertion order, so the first key is the oldest
+  while (verifiedTokens.size > config.approov.tokenCacheMaxEntries) {
+    verifiedTokens.delete(verifiedTokens.keys().next().value)
+  }
+}
+
+
 ////// APPROOV TOKEN //////
 
 
 // Callback that performs the Approov token check using the express-jwt library
-const checkApproovToken = jwt({
+const verifyApproovToken = jwt({
   secret: Buffer.from(config.approov.base64Secret, 'base64'), // decodes the Approov secret
   requestProperty: 'approovTokenDecoded',
   getToken: function fromApproovTokenHeader(req, res) {
@@ -152,6 +200,37 @@ const checkApproovToken = jwt({
   algorithms: ['HS256']
 })
 
+// Callback that performs the Approov token check, unless the same token and
+// token binding header were already verified and the token did not expire.
+const checkApproovToken = function(req, res, next) {
+  const approovToken = req.get('Approov-Token')
+
+  if (isEmptyString(approovToken) || config.approov.tokenCacheMaxEntries <= 0) {
+    verifyApproovToken(req, res, next)
+    return
+  }
+
+  const key = tokenCacheKey(approovToken, getTokenBindingHeader(req))
+  const verified = getVerifiedToken(key)
+
+  if (verified !== undefined) {
+    req.approovTokenError = false
+    req.approovTokenDecoded = verified.claims
+    req.approovTokenCacheKey = key
+    next()
+    return
+  }
+
+  verifyApproovToken(req, res, function(err) {
+    if (!err && req.approovTokenError === false) {
+      req.approovTokenCacheKey = key
+      putVerifiedToken(key, req.approovTokenDecoded)
+    }
+
+    next(err)
+  })
+}
+
 // Callback to handle the errors occurred while checking the Approov token.
 const handlesApproovTokenError = function(err, req, res, next) {
 
@@ -222,6 +301,15 @@ const handlesApproovTokenBindingVerification = function(req, res, next){
       return
   }
 
+  // The token binding of a cached token was already checked against the same header.
+  const verified = req.approovTokenCacheKey && getVerifiedToken(req.approovTokenCacheKey)
+
+  if (verified && verified.isBindingVerified) {
+    logSuccess(req, res, 'ACCEPTED REQUEST WITH VALID APPROOV TOKEN BINDING')
+    next()
+    return
+  }
+
   // We use here the Authorization token, but feel free to use another header, but you need to bind this  header to
   // the Approov token in the mobile app.
   const token_binding_header = getTokenBindingHeader(req)
@@ -240,6 +328,10 @@ const handlesApproovTokenBindingVerification = function(req, res, next){
       return
   }
 
+  if (verified) {
+    verified.isBindingVerified = true
+  }
+
   logSuccess(req, res, 'ACCEPTED REQUEST WITH VALID APPROOV TOKEN BINDING')
 
   // Let the request continue as usual.
@@ -1,4 +1,6 @@
 const dotenv = require('dotenv').config()
+const os = require('os')
+const path = require('path')
 
 if (dotenv.error) {
   throw dotenv.error
@@ -9,6 +11,36 @@ const config = {
     NASA_API_HOST: dotenv.parsed.NASA_API_HOST || undefined,
     NASA_IMAGE_HOST: dotenv.parsed.NASA_IMAGE_HOST || undefined,
     NASA_API_KEY: dotenv.parsed.NASA_API_KEY || undefined,
+
+    // upstream response caches, see response-cache.js
+    CACHE_MAX_ENTRIES: parseInt(dotenv.parsed.CACHE_MAX_ENTRIES || '1000', 10),
+    CACHE_MAX_MB: parseInt(dotenv.parsed.CACHE_MAX_MB || '32', 10),
+    CACHE_TODAY_TTL_SECONDS: parseInt(dotenv.parsed.CACHE_TODAY_TTL_SECONDS || '300', 10),
+    CACHE_PAST_TTL_SECONDS: parseInt(dotenv.parsed.CACHE_PAST_TTL_SECONDS || '86400', 10),
+    IMAGE_CACHE_MAX_MB: parseInt(dotenv.parsed.IMAGE_CACHE_MAX_MB || '128', 10),
+    IMAGE_CACHE_MAX_ENTRY_MB: parseInt(dotenv.parsed.IMAGE_CACHE_MAX_ENTRY_MB || '8', 10),
+
+    // how long clients may keep a response for past days, see api/nasa.js
+    CLIENT_PAST_MAX_AGE_SECONDS: parseInt(dotenv.parsed.CLIENT_PAST_MAX_AGE_SECONDS || '31536000', 10),
+
+    // resized image renditions, see disk-cache.js
+    RENDITION_CACHE_DIR: dotenv.parsed.RENDITION_CACHE_DIR || path.join(os.tmpdir(), 'astropiks-renditions'),
+    RENDITION_CACHE_MAX_MB: parseInt(dotenv.parsed.RENDITION_CACHE_MAX_MB || '512', 10),
+    RENDITION_MEMORY_CACHE_MAX_MB: parseInt(dotenv.parsed.RENDITION_MEMORY_CACHE_MAX_MB || '16', 10),
+    RENDITION_QUALITY: parseInt(dotenv.parsed.RENDITION_QUALITY || '70', 10),
+
+    // the GET /stats report, see server.js
+    STATS_ENABLED: (dotenv.parsed.STATS_ENABLED || 'false').toLowerCase() === 'true',
+
+    // worker processes sharing the port, 0 for one per core, see index.js
+    CLUSTER_WORKERS: parseInt(dotenv.parsed.CLUSTER_WORKERS || '1', 10),
+
+    // pooled connections to each upstream host, see upstream-agents.js
+    UPSTREAM_KEEP_ALIVE: (dotenv.parsed.UPSTREAM_KEEP_ALIVE || 'true').toLowerCase() === 'true',
+    UPSTREAM_MAX_SOCKETS: parseInt(dotenv.parsed.UPSTREAM_MAX_SOCKETS || '64', 10),
+    UPSTREAM_MAX_FREE_SOCKETS: parseInt(dotenv.parsed.UPSTREAM_MAX_FREE_SOCKETS || '64', 10),
+    UPSTREAM_IDLE_TIMEOUT_MS: parseInt(dotenv.parsed.UPSTREAM_IDLE_TIMEOUT_MS || '30000', 10),
+    UPSTREAM_TIMEOUT_MS: parseInt(dotenv.parsed.UPSTREAM_TIMEOUT_MS || '30000', 10),
 }
 
 let missing_env_vars = ""
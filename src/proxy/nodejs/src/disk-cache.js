@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+const crypto = require('crypto')
+const fs = require('fs')
+const path = require('path')
+
+/**
+ * A bounded cache of buffers in files on local disk.
+ *
+ * The least recently used files are deleted once the cache holds too many
+ * bytes. The index is kept in memory and rebuilt from the directory at
+ * start, oldest file first, so the cache survives restarts.
+ *
+ * The directory can be shared by processes, e.g. cluster workers, each with
+ * a cache of its own. The limit is for the directory as a whole: each cache
+ * rebuilds its index from the directory, ordered by the time files were last
+ * used, every rescanBytes it writes, and then deletes the least recently used
+ * files of any process. With N processes the directory can thus go over the
+ * limit by at most N * rescanBytes. Files another process put in the
+ * directory are also added to the index when first read.
+ *
+ * @param options the directory, dir, the limit, maxBytes, and how many bytes
+ *     to write between scans of the directory, rescanBytes, by default a
+ *     32nd of the limit.
+ * @return the cache.
+ */
+function createDiskCache(options) {
+  const dir = options.dir;
+  const maxBytes = options.maxBytes;
+  const rescanBytes = options.rescanBytes !== undefined ? options.rescanBytes : Math.floor(maxBytes / 32);
+
+  // a Map iterates in insertion order, so the first key is the least recently used
+  const files = new Map();
+  const stats = { hits: 0, misses: 0, evictions: 0 };
+  let bytes = 0;
+  let written = 0;
+  let scanning = false;
+
+  // replaces the index with the files found, least recently used first
+  function index(found) {
+    files.clear();
+    bytes = 0;
+    found
+      .filter((file) => file && file.stat.isFile())
+      .sort((a, b) => a.stat.mtimeMs - b.stat.mtimeMs)
+      .forEach((file) => {
+        files.set(file.name, file.stat.size);
+        bytes += file.stat.size;
+      });
+  }
+
+  fs.mkdirSync(dir, { recursive: true });
+  index(fs.readdirSync(dir)
+    .filter((name) => !name.endsWith('.tmp'))
+    .map((name) => ({ name: name, stat: fs.statSync(path.join(dir, name)) })));
+
+  function fileOf(key) {
+    return crypto.createHash('sha1').update(key).digest('hex');
+  }
+
+  function remove(name) {
+    bytes -= files.get(name);
+    files.delete(name);
+    fs.unlink(path.join(dir, name), () => {});
+  }
+
+  function evict() {
+    while (bytes > maxBytes && files.size > 0) {
+      remove(files.keys().next().value);
+      stats.evictions++;
+    }
+  }
+
+  // files put after the directory was listed are left out, until read or the next scan
+  function rescan(callback) {
+    scanning = true;
+    written = 0;
+    fs.readdir(dir, (err, names) => {
+      if (err) {
+        scanning = false;
+        return callback();
+      }
+
+      let found = names.filter((name) => !name.endsWith('.tmp'));
+      let pending = found.length;
+      let done = () => {
+        index(found);
+        evict();
+        scanning = false;
+        callback();
+      };
+      if (pending === 0) {
+        return done();
+      }
+      found.forEach((name, i) => {
+        fs.stat(path.join(dir, name), (err, stat) => {
+          // deleted meanwhile, e.g. evicted by another process
+          found[i] = err ? null : { name: name, stat: stat };
+          if (--pending === 0) {
+            done();
+          }
+        });
+      });
+    });
+  }
+
+  evict();
+
+  return {
+    /**
+     * Reads the buffer of a key.
+     *
+     * @param key the key.
+     * @param callback called with an error, or with the buffer, undefined if missing.
+     */
+    get(key, callback) {
+      let name = fileOf(key);
+      if (!files.has(name)) {
+        return fs.readFile(path.join(dir, name), (err, buffer) => {
+          if (err) {
+            stats.misses++;
+            return callback(null, undefined);
+          }
+
+          // put by another process sharing the directory, unless put here meanwhile
+          if (!files.has(name)) {
+            files.set(name, buffer.length);
+            bytes += buffer.length;
+            evict();
+          }
+          let now = new Date();
+          fs.utimes(path.join(dir, name), now, now, () => {});
+          stats.hits++;
+          callback(null, buffer);
+        });
+      }
+
+      // most recently used goes last, on disk too for the next start
+      let size = files.get(name);
+      files.delete(name);
+      files.set(name, size);
+      let now = new Date();
+      fs.utimes(path.join(dir, name), now, now, () => {});
+
+      fs.readFile(path.join(dir, name), (err, buffer) => {
+        if (err) {
+          // deleted behind our back, e.g. by a cleanup of the directory
+          if (files.has(name)) {
+            bytes -= files.get(name);
+            files.delete(name);
+          }
+          stats.misses++;
+          return callback(null, undefined);
+        }
+
+        stats.hits++;
+        callback(null, buffer);
+      });
+    },
+
+    /**
+     * Writes the buffer of a key, replacing any previous one.
+     *
+     * @param key the key.
+     * @param buffer the buffer.
+     * @param callback called with an error, if any, once written, and once
+     *     the directory is back within the limit if it was scanned.
+     */
+    put(key, buffer, callback) {
+      let name = fileOf(key);
+      let done = callback || (() => {});
+      if (buffer.length > maxBytes) {
+        return done(null);
+      }
+
+      // write aside then rename, so a crash never leaves a partial file
+      let tmp = path.join(dir, name + '.' + process.pid + '.tmp');
+      fs.writeFile(tmp, buffer, (err) => {
+        if (err) {
+          return done(err);
+        }
+
+        fs.rename(tmp, path.join(dir, name), (err) => {
+          if (err) {
+            fs.unlink(tmp, () => {});
+            return done(err);
+          }
+
+          if (files.has(name)) {
+            bytes -= files.get(name);
+            files.delete(name);
+          }
+          files.set(name, buffer.length);
+          bytes += buffer.length;
+          written += buffer.length;
+          if (written >= rescanBytes && !scanning) {
+            return rescan(() => done(null));
+          }
+          evict();
+          done(null);
+        });
+      });
+    },
+
+    /**
+     * Returns the statistics of the cache.
+     *
+     * @return the statistics.
+     */
+    getStats() {
+      let lookups = stats.hits + stats.misses;
+      return {
+        entries: files.size,
+        bytes: bytes,
+        hits: stats.hits,
+        misses: stats.misses,
+        evictions: stats.evictions,
+        hitRatio: lookups === 0 ? 0 : stats.hits / lookups,
+      };
+    },
+  };
+}
+
+module.exports = { createDiskCache: createDiskCache };
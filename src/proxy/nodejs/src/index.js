@@ -14,62 +14,61 @@
  * limitations under the License.
  */
 
-const nasa_api = require('./api/nasa');
-const nasa_images = require('./api/nasa-images');
-const app = require('express')();
-const config = require('./config');
-const approov = require('./approov-token-check')
+const cluster = require('cluster')
+const os = require('os')
+const config = require('./config')
 const log = require('./logging')
 
-const proxyPort = config.PROXY_PORT
-const approovHeaderName = config.APPROOV_HEADER_NAME;
+// one worker per core unless told otherwise
+const workers = config.CLUSTER_WORKERS > 0 ? config.CLUSTER_WORKERS : os.cpus().length
 
-log.debug(config)
-
-function log_request(req, res, next) {
-
-  log.raw('-------------------------------- NEW REQUEST --------------------------------')
-
-  const request = JSON.stringify({
-    originalUrl: req.originalUrl,
-    params: req.params,
-    headers: req.headers,
-  }, null, '  ')
-
-  log.debug(request);
-
-  next()
-}
-
-app.use('*', log_request);
-
-// Handles request to the root entry point.
-app.get('/', (req, res) => {
-  log.info('ENDPOINT: /');
-  res.status(200).json({name: 'Astropiks Reverse Proxy'});
-});
-
-// Handles errors in the request
-app.use((err, req, res, next) => {
-  log.fatalError(`Internal Server Error: ${err}`);
-  res.status(500).json({error: 'Internal Server Error'});
-});
-
-app.use('/v2', approov.checkApproovToken)
-
-app.use('/v2', approov.handlesApproovTokenError)
-
-app.use('/v2', approov.handlesApproovTokenSuccess)
-
-// pre-process all proxy requests
-nasa_api.routes(app)
-nasa_images.routes(app)
+/**
+ * Runs the proxy server in worker processes sharing its port.
+ *
+ * Connections are handed out to the workers in turn. A worker that dies
+ * once serving is replaced; one that dies before it listens is not, as it
+ * would most likely die again, e.g. on a port already in use.
+ */
+function startWorkers() {
+  let listening = new Set()
+  let stopping = false
+
+  cluster.on('listening', (worker) => listening.add(worker.id))
+
+  cluster.on('exit', (worker, code, signal) => {
+    let wasListening = listening.delete(worker.id)
+    if (stopping) {
+      if (Object.keys(cluster.workers).length === 0) {
+        process.exit(0)
+      }
+      return
+    }
+
+    log.error(`Api proxy worker ${worker.process.pid} died (${signal || code})`)
+    if (wasListening) {
+      cluster.fork()
+    } else if (Object.keys(cluster.workers).length === 0) {
+      log.fatalError('Api proxy workers failed to start')
+      process.exit(1)
+    }
+  })
+
+  // stop the workers with the primary, rather than replacing them
+  for (let signal of ['SIGINT', 'SIGTERM']) {
+    process.on(signal, () => {
+      stopping = true
+      Object.values(cluster.workers).forEach((worker) => worker.process.kill(signal))
+    })
+  }
 
-// Starts the proxy server
-app.listen(proxyPort, (err) => {
-  if (err) {
-    return log.fatalError(`Unexpected error tryng to listen on ${proxyPort}:`, err);
+  log.success(`Api proxy server ${process.pid} is starting ${workers} workers`)
+  for (let i = 0; i < workers; i++) {
+    cluster.fork()
   }
+}
 
-  log.success(`Api proxy server is listening on ${proxyPort}`);
-});
+if (workers > 1 && cluster.isPrimary) {
+  startWorkers()
+} else {
+  require('./server')
+}
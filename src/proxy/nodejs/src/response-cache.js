@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A bounded in-memory cache of upstream responses, with request coalescing.
+ *
+ * Entries expire after their own time to live and the least recently used
+ * ones are dropped once the cache holds too many entries or bytes.
+ * Concurrent fetches of a key missing from the cache share a single
+ * upstream request.
+ *
+ * @param options the limits: maxEntries, maxBytes and maxEntryBytes.
+ * @return the cache.
+ */
+function createResponseCache(options) {
+  const maxEntries = options.maxEntries;
+  const maxBytes = options.maxBytes;
+  const maxEntryBytes = options.maxEntryBytes || maxBytes;
+
+  // a Map iterates in insertion order, so the first key is the least recently used
+  const entries = new Map();
+  const inFlight = new Map();
+  const stats = { hits: 0, misses: 0, coalesced: 0, evictions: 0 };
+  let bytes = 0;
+
+  function remove(key) {
+    let entry = entries.get(key);
+    if (entry) {
+      entries.delete(key);
+      bytes -= entry.size;
+    }
+  }
+
+  function get(key) {
+    let entry = entries.get(key);
+    if (!entry) {
+      return undefined;
+    }
+
+    if (entry.expires <= Date.now()) {
+      remove(key);
+      return undefined;
+    }
+
+    // most recently used goes last
+    entries.delete(key);
+    entries.set(key, entry);
+    return entry.value;
+  }
+
+  function set(key, value, size, ttlMillis) {
+    remove(key);
+    if (ttlMillis <= 0 || size > maxEntryBytes) {
+      return;
+    }
+
+    entries.set(key, { value: value, size: size, expires: Date.now() + ttlMillis });
+    bytes += size;
+
+    while (entries.size > maxEntries || bytes > maxBytes) {
+      remove(entries.keys().next().value);
+      stats.evictions++;
+    }
+  }
+
+  /**
+   * Gets a value from the cache, or loads it once for every concurrent caller.
+   *
+   * The loader calls back with (err, value, size, ttlMillis); a value with no
+   * time to live, e.g. an error response, is handed to the waiting callers
+   * but not cached.
+   *
+   * @param key the normalized key.
+   * @param load the loader, called with the callback.
+   * @param done called back with (err, value, hit).
+   */
+  function fetch(key, load, done) {
+    let value = get(key);
+    if (value !== undefined) {
+      stats.hits++;
+      return done(null, value, true);
+    }
+
+    let waiting = inFlight.get(key);
+    if (waiting) {
+      stats.coalesced++;
+      waiting.push(done);
+      return;
+    }
+
+    stats.misses++;
+    waiting = [done];
+    inFlight.set(key, waiting);
+
+    load((err, loaded, size, ttlMillis) => {
+      inFlight.delete(key);
+      if (!err) {
+        set(key, loaded, size, ttlMillis);
+      }
+      waiting.forEach((callback) => callback(err, loaded, false));
+    });
+  }
+
+  /**
+   * Returns the cache statistics; coalesced requests count as hits.
+   *
+   * @return the statistics.
+   */
+  function getStats() {
+    let requests = stats.hits + stats.misses + stats.coalesced;
+    return {
+      entries: entries.size,
+      bytes: bytes,
+      hits: stats.hits,
+      coalesced: stats.coalesced,
+      misses: stats.misses,
+      evictions: stats.evictions,
+      hitRatio: requests === 0 ? 0 : (stats.hits + stats.coalesced) / requests,
+    };
+  }
+
+  return { fetch: fetch, getStats: getStats };
+}
+
+module.exports = { createResponseCache: createResponseCache };
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 CriticalBlue, Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+const http = require('http')
+const https = require('https')
+const config = require('./config')
+
+// one agent per upstream host, so each host has its own socket limits
+const agents = new Map();
+
+// request headers that only apply to the connection they came in on
+const hopByHopHeaders = ['connection', 'keep-alive', 'proxy-connection', 'te', 'trailer', 'transfer-encoding', 'upgrade'];
+
+/**
+ * Returns the agent for requests to an upstream host.
+ *
+ * The agents keep connections alive, so requests to a host reuse warm
+ * connections, and their TLS sessions, rather than opening a connection
+ * each. The most recently used connections are reused first, so idle ones
+ * time out when the load drops.
+ *
+ * @param upstreamUrl the url of a request to the host.
+ * @return the agent.
+ */
+function agentFor(upstreamUrl) {
+  let { protocol, host } = new URL(upstreamUrl);
+  let origin = protocol + '//' + host;
+  let entry = agents.get(origin);
+
+  if (!entry) {
+    let Agent = protocol === 'http:' ? http.Agent : https.Agent;
+    let agent = new Agent({
+      keepAlive: config.UPSTREAM_KEEP_ALIVE,
+      maxSockets: config.UPSTREAM_MAX_SOCKETS,
+      maxFreeSockets: config.UPSTREAM_MAX_FREE_SOCKETS,
+      // applies to free connections only, requests have their own timeout
+      timeout: config.UPSTREAM_IDLE_TIMEOUT_MS,
+      scheduling: 'lifo',
+    });
+    entry = { agent: agent, requests: 0, connections: 0 };
+
+    let createConnection = agent.createConnection;
+    agent.createConnection = function () {
+      entry.connections++;
+      return createConnection.apply(this, arguments);
+    };
+    agents.set(origin, entry);
+  }
+
+  entry.requests++;
+  return entry.agent;
+}
+
+/**
+ * Copies request headers to pass upstream, without the hop-by-hop ones.
+ *
+ * The client's Connection header in particular must not decide whether the
+ * upstream connection is kept alive.
+ *
+ * @param headers the headers of the client request.
+ * @return the headers to send upstream.
+ */
+function upstreamHeadersOf(headers) {
+  let upstreamHeaders = Object.assign({}, headers);
+  hopByHopHeaders.forEach((name) => delete upstreamHeaders[name]);
+  return upstreamHeaders;
+}
+
+/**
+ * Returns the statistics of the upstream agents, by upstream origin.
+ *
+ * @return the statistics, e.g. how many requests reused a connection.
+ */
+function getStats() {
+  let stats = {};
+  agents.forEach((entry, origin) => {
+    let countOf = (sockets) => Object.values(sockets).reduce((count, list) => count + list.length, 0);
+    stats[origin] = {
+      requests: entry.requests,
+      connections: entry.connections,
+      reuseRatio: entry.requests === 0 ? 0 : Math.max(0, entry.requests - entry.connections) / entry.requests,
+      activeSockets: countOf(entry.agent.sockets),
+      freeSockets: countOf(entry.agent.freeSockets),
+    };
+  });
+  return stats;
+}
+
+module.exports = { agentFor: agentFor, upstreamHeadersOf: upstreamHeadersOf, getStats: getStats };
@@ -0,0 +1,61 @@
+// Checks the proxy keeps rejecting an Approov token once it expires, even
+// after its signature was verified and cached.
+
+const { after, before, test } = require('node:test')
+const assert = require('node:assert')
+const fs = require('fs')
+const { makeTestDir, startUpstream, startProxy, signApproovToken } = require('./proxy-harness')
+
+const secret = Buffer.from('approov test secret').toString('base64')
+
+let dir
+let upstream
+let proxy
+
+function apodPath() {
+  return '/v2/' + upstream.host + '/planetary/apod?date=2020-01-01'
+}
+
+before(async () => {
+  dir = makeTestDir()
+  upstream = await startUpstream(dir, (req, res) => {
+    res.writeHead(200, { 'content-type': 'application/json' })
+    res.end(JSON.stringify({ date: '2020-01-01', media_type: 'image', title: 'Picture', url: 'https://apod.nasa.gov/a.jpg' }))
+  })
+  proxy = await startProxy(dir, {
+    NASA_API_HOST: upstream.host,
+    APPROOV_TOKEN_BASE64_SECRET: secret,
+    APPROOV_ABORT_REQUEST_ON_INVALID_TOKEN: true,
+    APPROOV_TOKEN_CACHE_MAX_ENTRIES: 100,
+  })
+})
+
+after(async () => {
+  await proxy.stop()
+  await upstream.close()
+  fs.rmSync(dir, { recursive: true, force: true })
+})
+
+test('a valid token is accepted again from the cache', async () => {
+  let token = signApproovToken(secret, { exp: Math.floor(Date.now() / 1000) + 300 })
+
+  assert.strictEqual((await proxy.get(apodPath(), { 'approov-token': token })).statusCode, 200)
+  assert.strictEqual((await proxy.get(apodPath(), { 'approov-token': token })).statusCode, 200)
+})
+
+test('a cached token is rejected once expired', async () => {
+  let exp = Math.floor(Date.now() / 1000) + 2
+  let token = signApproovToken(secret, { exp: exp })
+  assert.strictEqual((await proxy.get(apodPath(), { 'approov-token': token })).statusCode, 200)
+
+  // past the expiry second
+  await new Promise((resolve) => setTimeout(resolve, exp * 1000 - Date.now() + 100))
+
+  assert.strictEqual((await proxy.get(apodPath(), { 'approov-token': token })).statusCode, 401)
+})
+
+test('a token signed with another secret is rejected', async () => {
+  let token = signApproovToken(Buffer.from('another secret').toString('base64'), { exp: Math.floor(Date.now() / 1000) + 300 })
+
+  assert.strictEqual((await proxy.get(apodPath(), { 'approov-token': token })).statusCode, 401)
+})
@@ -0,0 +1,72 @@
+// Checks the disk cache keeps a directory shared by processes, e.g. cluster
+// workers, within its limit, with a cache per process.
+
+const { test } = require('node:test')
+const assert = require('node:assert')
+const fs = require('fs')
+const os = require('os')
+const path = require('path')
+const { createDiskCache } = require('../src/disk-cache')
+
+function put(cache, key, buffer) {
+  return new Promise((resolve, reject) => cache.put(key, buffer, (err) => err ? reject(err) : resolve()))
+}
+
+function get(cache, key) {
+  return new Promise((resolve, reject) => cache.get(key, (err, buffer) => err ? reject(err) : resolve(buffer)))
+}
+
+// evicted files are deleted in the background
+function settled() {
+  return new Promise((resolve) => setTimeout(resolve, 20))
+}
+
+function dirBytes(dir) {
+  return fs.readdirSync(dir).reduce((bytes, name) => bytes + fs.statSync(path.join(dir, name)).size, 0)
+}
+
+test('caches sharing a directory keep it within the limit together', async () => {
+  let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'disk-cache-test-'))
+  let options = { dir: dir, maxBytes: 16 * 1024, rescanBytes: 2 * 1024 }
+  let workers = [createDiskCache(options), createDiskCache(options), createDiskCache(options)]
+
+  for (let i = 0; i < 60; i++) {
+    await put(workers[i % workers.length], 'key-' + i, Buffer.alloc(1024, i))
+  }
+  await settled()
+
+  assert.ok(dirBytes(dir) <= options.maxBytes + workers.length * options.rescanBytes, dirBytes(dir) + ' bytes')
+
+  // the most recent entries survive, whichever worker put them
+  for (let i = 55; i < 60; i++) {
+    assert.deepStrictEqual(await get(workers[(i + 1) % workers.length], 'key-' + i), Buffer.alloc(1024, i))
+  }
+
+  fs.rmSync(dir, { recursive: true, force: true })
+})
+
+test('a rescan keeps the entries other caches used recently', async () => {
+  let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'disk-cache-test-'))
+  let options = { dir: dir, maxBytes: 8 * 1024, rescanBytes: 1024 }
+  let reader = createDiskCache(options)
+  let writer = createDiskCache(options)
+
+  for (let i = 0; i < 4; i++) {
+    await put(writer, 'old-' + i, Buffer.alloc(1024, i))
+  }
+  // file times are kept to the millisecond at best
+  await settled()
+  assert.ok(await get(reader, 'old-0'))
+
+  // three over the limit, as the writer put old-0 first it would evict it
+  for (let i = 0; i < 7; i++) {
+    await settled()
+    await put(writer, 'new-' + i, Buffer.alloc(1024, i))
+  }
+  await settled()
+
+  assert.ok(await get(reader, 'old-0'))
+  assert.strictEqual(await get(reader, 'old-1'), undefined)
+
+  fs.rmSync(dir, { recursive: true, force: true })
+})
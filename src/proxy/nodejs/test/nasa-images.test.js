@@ -0,0 +1,141 @@
+// Checks the proxy resizes images to the renditions asked for and keeps
+// them on disk, with a fake image host.
+
+const { after, before, test } = require('node:test')
+const assert = require('node:assert')
+const fs = require('fs')
+const http = require('http')
+const sharp = require('sharp')
+const { makeTestDir, startUpstream, startProxy } = require('./proxy-harness')
+
+let dir
+let images
+let proxy
+
+function imagePath(name, query) {
+  return '/v1/' + images.host + '/apod/image/2001/' + name + '.jpg' + (query ? '?' + query : '')
+}
+
+// sends a GET request, timing its response headers
+function timedGet(urlPath) {
+  return new Promise((resolve, reject) => {
+    let start = Date.now()
+    http.get({ host: '127.0.0.1', port: proxy.port, path: urlPath, agent: false }, (res) => {
+      let headersMillis = Date.now() - start
+      let chunks = []
+      res.on('data', (chunk) => chunks.push(chunk))
+      res.on('end', () => resolve({ statusCode: res.statusCode, headersMillis: headersMillis, body: Buffer.concat(chunks) }))
+      res.on('error', reject)
+    }).on('error', reject)
+  })
+}
+
+async function renditionStats() {
+  return JSON.parse((await proxy.get('/stats')).body).renditions
+}
+
+before(async () => {
+  dir = makeTestDir()
+  let original = await sharp({ create: { width: 1600, height: 1200, channels: 3, background: '#204080' } }).jpeg().toBuffer()
+  images = await startUpstream(dir, (req, res) => {
+    if (req.url.includes('/stalled')) {
+      // never answers
+      return
+    }
+
+    res.writeHead(200, { 'content-type': 'image/jpeg', 'content-length': original.length })
+    if (req.url.includes('/slow')) {
+      // the rest of the image comes later
+      res.write(original.subarray(0, 1024))
+      setTimeout(() => res.end(original.subarray(1024)), 500)
+      return
+    }
+    res.end(original)
+  }, '127.0.0.1')
+
+  // no memory caches, so a second request can only be answered from disk
+  proxy = await startProxy(dir, {
+    NASA_IMAGE_HOST: images.host,
+    IMAGE_CACHE_MAX_MB: 0,
+    RENDITION_MEMORY_CACHE_MAX_MB: 0,
+    STATS_ENABLED: true,
+    UPSTREAM_TIMEOUT_MS: 1000,
+  })
+})
+
+after(async () => {
+  await proxy.stop()
+  await images.close()
+  fs.rmSync(dir, { recursive: true, force: true })
+})
+
+test('a rendition is resized to the width asked for, rounded up', async () => {
+  let res = await proxy.get(imagePath('thumbnail', 'w=300&format=webp'))
+
+  assert.strictEqual(res.statusCode, 200)
+  assert.strictEqual(res.headers['content-type'], 'image/webp')
+  assert.strictEqual(res.headers['content-length'], String(res.body.length))
+
+  let metadata = await sharp(res.body).metadata()
+  assert.strictEqual(metadata.format, 'webp')
+  assert.strictEqual(metadata.width, 320)
+  assert.strictEqual(metadata.height, 240)
+})
+
+test('a rendition is never larger than the original', async () => {
+  let res = await proxy.get(imagePath('large', 'w=4000'))
+
+  assert.strictEqual(res.statusCode, 200)
+  assert.strictEqual(res.headers['content-type'], 'image/jpeg')
+  assert.strictEqual((await sharp(res.body).metadata()).width, 1600)
+})
+
+test('a rendition asked for again is served from the disk cache', async () => {
+  let entries = (await renditionStats()).disk.entries
+  let first = await proxy.get(imagePath('again', 'w=500'))
+
+  // stored once the response is out
+  while ((await renditionStats()).disk.entries === entries) {
+    await new Promise((resolve) => setTimeout(resolve, 10))
+  }
+  let requests = images.requests.length
+  let hits = (await renditionStats()).disk.hits
+
+  let res = await proxy.get(imagePath('again', 'w=500'))
+
+  assert.strictEqual(res.statusCode, 200)
+  assert.strictEqual(res.headers['content-type'], 'image/jpeg')
+  assert.deepStrictEqual(res.body, first.body)
+  assert.strictEqual((await sharp(res.body).metadata()).width, 512)
+  assert.strictEqual(images.requests.length, requests)
+  assert.strictEqual((await renditionStats()).disk.hits, hits + 1)
+})
+
+test('an unknown rendition format is rejected', async () => {
+  assert.strictEqual((await proxy.get(imagePath('thumbnail', 'format=gif'))).statusCode, 400)
+})
+
+test('a rendition format or width given more than once is rejected', async () => {
+  for (let query of ['format[]=webp', 'format=webp&format=webp', 'w[]=400', 'w=400&w=400']) {
+    assert.strictEqual((await proxy.get(imagePath('thumbnail', query))).statusCode, 400, query)
+  }
+})
+
+test('an original image is streamed as it downloads', async () => {
+  let [first, second] = await Promise.all([timedGet(imagePath('slow-1')), timedGet(imagePath('slow-1'))])
+
+  assert.strictEqual(first.statusCode, 200)
+  assert.ok(first.headersMillis < 250, first.headersMillis + ' ms')
+  assert.strictEqual((await sharp(first.body).metadata()).width, 1600)
+
+  // the request arriving meanwhile shares the download, kept as it fits the cache
+  assert.deepStrictEqual(second.body, first.body)
+  assert.strictEqual(images.requests.filter((request) => request.url.includes('/slow-1')).length, 1)
+})
+
+test('a stalled download fails every request waiting for it', async () => {
+  let responses = await Promise.all([proxy.get(imagePath('stalled')), proxy.get(imagePath('stalled'))])
+
+  assert.deepStrictEqual(responses.map((res) => res.statusCode), [500, 500])
+  assert.strictEqual(images.requests.filter((request) => request.url.includes('/stalled')).length, 1)
+})
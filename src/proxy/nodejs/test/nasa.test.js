@@ -0,0 +1,95 @@
+// Checks the proxy lets clients cache APOD responses and revalidate them,
+// with a fake NASA API upstream.
+
+const { after, before, test } = require('node:test')
+const assert = require('node:assert')
+const fs = require('fs')
+const zlib = require('zlib')
+const { makeTestDir, startUpstream, startProxy } = require('./proxy-harness')
+
+const pastMaxAge = 1234
+
+let dir
+let upstream
+let proxy
+
+function entryOf(date) {
+  return {
+    date: date,
+    explanation: 'The picture of the day ' + date + '.',
+    media_type: 'image',
+    title: 'Picture of ' + date,
+    url: 'https://apod.nasa.gov/apod/image/' + date + '/image.jpg',
+  }
+}
+
+function apodPath(query) {
+  return '/v1/' + upstream.host + '/planetary/apod' + (query ? '?' + query : '')
+}
+
+before(async () => {
+  dir = makeTestDir()
+  upstream = await startUpstream(dir, (req, res) => {
+    let date = new URL(req.url, 'https://localhost').searchParams.get('date') || new Date().toISOString().slice(0, 10)
+    res.writeHead(200, { 'content-type': 'application/json' })
+    res.end(JSON.stringify(entryOf(date)))
+  })
+  proxy = await startProxy(dir, {
+    NASA_API_HOST: upstream.host,
+    CLIENT_PAST_MAX_AGE_SECONDS: pastMaxAge,
+  })
+})
+
+after(async () => {
+  await proxy.stop()
+  await upstream.close()
+  fs.rmSync(dir, { recursive: true, force: true })
+})
+
+test('a past day is cached by clients for the configured max-age', async () => {
+  let res = await proxy.get(apodPath('date=2020-01-01'))
+
+  assert.strictEqual(res.statusCode, 200)
+  assert.strictEqual(res.headers['cache-control'], 'public, max-age=' + pastMaxAge + ', immutable')
+  assert.match(res.headers['etag'], /^"[^"]+"$/)
+  assert.strictEqual(JSON.parse(res.body).title, 'Picture of 2020-01-01')
+})
+
+test('a conditional GET for an unchanged day answers 304 without the body', async () => {
+  let first = await proxy.get(apodPath('date=2020-01-02'))
+  let requests = upstream.requests.length
+
+  let res = await proxy.get(apodPath('date=2020-01-02'), { 'if-none-match': first.headers['etag'] })
+
+  assert.strictEqual(res.statusCode, 304)
+  assert.strictEqual(res.body.length, 0)
+  assert.strictEqual(res.headers['etag'], first.headers['etag'])
+  assert.strictEqual(res.headers['cache-control'], 'public, max-age=' + pastMaxAge + ', immutable')
+  // answered from the proxy cache too
+  assert.strictEqual(upstream.requests.length, requests)
+})
+
+test('today is revalidated by clients', async () => {
+  let first = await proxy.get(apodPath())
+  assert.strictEqual(first.statusCode, 200)
+  assert.strictEqual(first.headers['cache-control'], 'no-cache')
+
+  let res = await proxy.get(apodPath(), { 'if-none-match': first.headers['etag'] })
+
+  assert.strictEqual(res.statusCode, 304)
+  assert.strictEqual(res.body.length, 0)
+})
+
+test('a tag for another content coding gets the full body', async () => {
+  let identity = await proxy.get(apodPath('date=2020-01-03'))
+
+  let res = await proxy.get(apodPath('date=2020-01-03'), {
+    'accept-encoding': 'gzip',
+    'if-none-match': identity.headers['etag'],
+  })
+
+  assert.strictEqual(res.statusCode, 200)
+  assert.strictEqual(res.headers['content-encoding'], 'gzip')
+  assert.notStrictEqual(res.headers['etag'], identity.headers['etag'])
+  assert.deepStrictEqual(JSON.parse(zlib.gunzipSync(res.body)), JSON.parse(identity.body))
+})
@@ -0,0 +1,161 @@
+// Runs the proxy in a child process against fake upstream hosts on this
+// machine. The upstream hosts are served over TLS, as the proxy only speaks
+// https upstream, with a self-signed certificate made by openssl.
+
+const { execFileSync, spawn } = require('child_process')
+const crypto = require('crypto')
+const fs = require('fs')
+const http = require('http')
+const https = require('https')
+const net = require('net')
+const os = require('os')
+const path = require('path')
+
+/**
+ * Creates a temporary directory holding a certificate for localhost and
+ * 127.0.0.1.
+ *
+ * @return the directory.
+ */
+function makeTestDir() {
+  let dir = fs.mkdtempSync(path.join(os.tmpdir(), 'proxy-test-'))
+  execFileSync('openssl', [
+    'req', '-x509', '-newkey', 'rsa:2048', '-nodes', '-days', '1',
+    '-keyout', path.join(dir, 'key.pem'), '-out', path.join(dir, 'cert.pem'),
+    '-subj', '/CN=localhost', '-addext', 'subjectAltName=DNS:localhost,IP:127.0.0.1',
+  ], { stdio: 'ignore' })
+  return dir
+}
+
+function freePort() {
+  return new Promise((resolve, reject) => {
+    let server = net.createServer()
+    server.on('error', reject)
+    server.listen(0, '127.0.0.1', () => {
+      let port = server.address().port
+      server.close(() => resolve(port))
+    })
+  })
+}
+
+/**
+ * Starts a fake upstream host.
+ *
+ * Hosts are told apart by name rather than port, as the proxy routes on the
+ * host name, so two upstream hosts need localhost and 127.0.0.1.
+ *
+ * @param dir the test directory.
+ * @param handler the request handler, as for https.createServer.
+ * @param hostname the host name, localhost by default.
+ * @return a promise of the upstream, with its host and the requests it got.
+ */
+function startUpstream(dir, handler, hostname = 'localhost') {
+  return new Promise((resolve) => {
+    let upstream = { requests: [] }
+    let server = https.createServer({
+      key: fs.readFileSync(path.join(dir, 'key.pem')),
+      cert: fs.readFileSync(path.join(dir, 'cert.pem')),
+    }, (req, res) => {
+      upstream.requests.push({ url: req.url, headers: req.headers })
+      handler(req, res)
+    })
+    server.listen(0, hostname, () => {
+      upstream.host = hostname + ':' + server.address().port
+      upstream.close = () => new Promise((done) => {
+        server.closeAllConnections()
+        server.close(done)
+      })
+      resolve(upstream)
+    })
+  })
+}
+
+/**
+ * Sends a GET request.
+ *
+ * @param port the port to send it to, on this machine.
+ * @param urlPath the path and query.
+ * @param headers the request headers.
+ * @return a promise of the status code, headers and raw body bytes.
+ */
+function get(port, urlPath, headers) {
+  return new Promise((resolve, reject) => {
+    let req = http.get({ host: '127.0.0.1', port: port, path: urlPath, headers: headers || {}, agent: false }, (res) => {
+      let chunks = []
+      res.on('data', (chunk) => chunks.push(chunk))
+      res.on('end', () => resolve({ statusCode: res.statusCode, headers: res.headers, body: Buffer.concat(chunks) }))
+    })
+    req.on('error', reject)
+  })
+}
+
+/**
+ * Signs an Approov token, as the Approov cloud service does.
+ *
+ * @param base64Secret the Approov secret, base64 encoded.
+ * @param claims the token claims, e.g. exp.
+ * @return the token, a JWT signed with HS256.
+ */
+function signApproovToken(base64Secret, claims) {
+  let encode = (part) => Buffer.from(JSON.stringify(part)).toString('base64url')
+  let signed = encode({ alg: 'HS256', typ: 'JWT' }) + '.' + encode(claims)
+  return signed + '.' + crypto.createHmac('sha256', Buffer.from(base64Secret, 'base64')).update(signed).digest('base64url')
+}
+
+/**
+ * Starts the proxy, with a .env file of its own, and waits until it answers.
+ *
+ * @param dir the test directory.
+ * @param env the settings of the .env file, on top of the test defaults.
+ * @return a promise of the proxy, with its port, get(urlPath, headers) and stop().
+ */
+async function startProxy(dir, env) {
+  let port = await freePort()
+  let runDir = fs.mkdtempSync(path.join(dir, 'proxy-'))
+  let settings = Object.assign({
+    HTTP_PORT: port,
+    NASA_API_HOST: 'api.nasa.gov',
+    NASA_IMAGE_HOST: 'apod.nasa.gov',
+    NASA_API_KEY: 'test',
+    RENDITION_CACHE_DIR: path.join(runDir, 'renditions'),
+    APPROOV_TOKEN_BASE64_SECRET: Buffer.from('test').toString('base64'),
+  }, env)
+  fs.writeFileSync(path.join(runDir, '.env'), Object.entries(settings).map(([name, value]) => name + '=' + value).join('\n'))
+
+  let child = spawn(process.execPath, [path.join(__dirname, '..', 'src', 'index.js')], {
+    cwd: runDir,
+    env: Object.assign({}, process.env, { NODE_EXTRA_CA_CERTS: path.join(dir, 'cert.pem') }),
+    stdio: 'ignore',
+  })
+  let exited = new Promise((resolve) => child.once('exit', resolve))
+
+  let proxy = {
+    port: port,
+    get: (urlPath, headers) => get(port, urlPath, headers),
+    stop: () => {
+      child.kill('SIGTERM')
+      return exited
+    },
+  }
+
+  for (let attempt = 0; ; attempt++) {
+    try {
+      await proxy.get('/')
+      return proxy
+    } catch (err) {
+      if (attempt === 200 || child.exitCode !== null) {
+        await proxy.stop()
+        throw new Error('proxy did not start')
+      }
+      await new Promise((resolve) => setTimeout(resolve, 50))
+    }
+  }
+}
+
+module.exports = {
+  makeTestDir: makeTestDir,
+  startUpstream: startUpstream,
+  startProxy: startProxy,
+  get: get,
+  signApproovToken: signApproovToken,
+}
@@ -0,0 +1,37 @@
+// Checks the proxy only reports its statistics when told to.
+
+const { after, before, test } = require('node:test')
+const assert = require('node:assert')
+const fs = require('fs')
+const { makeTestDir, startProxy } = require('./proxy-harness')
+
+let dir
+
+before(() => {
+  dir = makeTestDir()
+})
+
+after(() => {
+  fs.rmSync(dir, { recursive: true, force: true })
+})
+
+test('the statistics are not served by default', async () => {
+  let proxy = await startProxy(dir, {})
+  try {
+    assert.strictEqual((await proxy.get('/stats')).statusCode, 404)
+  } finally {
+    await proxy.stop()
+  }
+})
+
+test('the statistics are served once enabled', async () => {
+  let proxy = await startProxy(dir, { STATS_ENABLED: true })
+  try {
+    let res = await proxy.get('/stats')
+
+    assert.strictEqual(res.statusCode, 200)
+    assert.ok(JSON.parse(res.body).api)
+  } finally {
+    await proxy.stop()
+  }
+})